@@ -22,7 +22,7 @@ export const MediaPreview: React.FC<MediaPreviewProps> = ({upload}: MediaPreview
     <div className="MediaPreview" data-upload={upload.upload.id} data-media={upload.media.id} data-sha256={upload.media.sha256} data-md5={upload.media.md5} data-mime={upload.media.mime}>
       <div className="ThumbWrapper">
         <a href={`/view/${upload.upload.id}`} onClick={handleNavigate} className={upload.state.MODERATION_QUEUED ? 'blurred hover-clear' : ''}>
-          <img src={`/thumb/${upload.upload.id}`} alt={`Thumbnail for upload ${upload.upload.id}`} className={clsx('thumbnail', upload.state.MODERATION_QUEUED && 'censored hover-clear')}/>
+          <img src={`/thumb/${upload.upload.id}`} srcSet={`/thumb/${upload.upload.id} 1x, /thumb/${upload.upload.id}?size=400 2x`} alt={`Thumbnail for upload ${upload.upload.id}`} className={clsx('thumbnail', upload.state.MODERATION_QUEUED && 'censored hover-clear')}/>
         </a>
         <div className="IconsWrapper">
           <div className="OverlayIcon" title={`This upload is a${isImage ? 'n image' : 'video'}`}>
@@ -83,6 +83,25 @@ public class ParserResult {
     return false;
   }
 
+  /**
+   * Checks if the provided {@link Mime} is listed explicitly, ignoring wildcards. Useful for
+   * optional formats that clients only announce when they support them, e.g. image/webp, where a
+   * wildcard match doesn't mean the client can actually decode it.
+   *
+   * @param search The {@link Mime} to check.
+   *
+   * @return Whether or not the provided {@link Mime} is listed explicitly.
+   */
+  public boolean hasExactMatch(Mime search) {
+    for (var entry : entries) {
+      if (entry.getMime().equals(search)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * Checks the quality of the provided {@link Mime}.
    *
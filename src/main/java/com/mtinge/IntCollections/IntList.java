@@ -0,0 +1,115 @@
+package com.mtinge.IntCollections;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A growable list of primitive ints backed by a single array. Avoids the boxing and node overhead of
+ * a {@code List<Integer>} for id lists that are built once and then iterated.
+ */
+public final class IntList {
+  private static final int[] EMPTY = new int[0];
+
+  private int[] data;
+  private int size;
+
+  public IntList() {
+    this(8);
+  }
+
+  public IntList(int capacity) {
+    if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+    this.data = capacity == 0 ? EMPTY : new int[capacity];
+    this.size = 0;
+  }
+
+  private IntList(int[] data, int size) {
+    this.data = data;
+    this.size = size;
+  }
+
+  public static IntList of(int... values) {
+    return new IntList(Arrays.copyOf(values, values.length), values.length);
+  }
+
+  public static IntList copyOf(Collection<Integer> values) {
+    var ret = new IntList(values.size());
+    for (var value : values) {
+      ret.add(value);
+    }
+
+    return ret;
+  }
+
+  public void add(int value) {
+    if (size == data.length) {
+      data = Arrays.copyOf(data, Math.max(8, data.length + (data.length >> 1)));
+    }
+
+    data[size++] = value;
+  }
+
+  public int get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+
+    return data[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(int value) {
+    for (int i = 0; i < size; i++) {
+      if (data[i] == value) return true;
+    }
+
+    return false;
+  }
+
+  public void forEach(IntConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      consumer.accept(data[i]);
+    }
+  }
+
+  public IntStream stream() {
+    return Arrays.stream(data, 0, size);
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(data, size);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    IntList other = (IntList) o;
+
+    return Arrays.equals(data, 0, size, other.data, 0, other.size);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + data[i];
+    }
+
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
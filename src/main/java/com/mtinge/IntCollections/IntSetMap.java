@@ -0,0 +1,388 @@
+package com.mtinge.IntCollections;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>An immutable map of int keys to sets of ints. Keys are stored in an open-addressed table with
+ * linear probing, and each key's set is a sorted, duplicate-free {@code int[]}, so a lookup is a
+ * couple of array reads and iterating a set walks contiguous memory.</p>
+ * <p>Writes return a new map and leave the original untouched, which makes instances safe to share
+ * between threads without locking. Use a {@link Builder} to create a map with many entries.</p>
+ */
+public final class IntSetMap {
+  private static final int[] EMPTY = new int[0];
+  private static final IntSetMap EMPTY_MAP = new IntSetMap(new int[2], new int[2][], 0);
+
+  private final int[] keys;
+  /**
+   * The set stored for the key in the same slot of {@link #keys}. A null set marks a free slot.
+   */
+  private final int[][] values;
+  private final int size;
+
+  private IntSetMap(int[] keys, int[][] values, int size) {
+    this.keys = keys;
+    this.values = values;
+    this.size = size;
+  }
+
+  public static IntSetMap empty() {
+    return EMPTY_MAP;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return The number of keys in this map.
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(int key) {
+    return values[slot(keys, values, key)] != null;
+  }
+
+  /**
+   * @param key The key to look up.
+   *
+   * @return The number of values stored for {@code key}.
+   */
+  public int count(int key) {
+    var found = values[slot(keys, values, key)];
+    return found == null ? 0 : found.length;
+  }
+
+  public boolean contains(int key, int value) {
+    var found = values[slot(keys, values, key)];
+    return found != null && Arrays.binarySearch(found, value) >= 0;
+  }
+
+  /**
+   * @param key The key to look up.
+   *
+   * @return A sorted copy of the values stored for {@code key}, empty if there are none.
+   */
+  public int[] get(int key) {
+    var found = values[slot(keys, values, key)];
+    return found == null ? EMPTY : found.clone();
+  }
+
+  /**
+   * Calls {@code consumer} with every value stored for {@code key} in ascending order.
+   *
+   * @param key The key to look up.
+   * @param consumer The consumer to call.
+   */
+  public void forEach(int key, IntConsumer consumer) {
+    var found = values[slot(keys, values, key)];
+    if (found != null) {
+      for (int value : found) {
+        consumer.accept(value);
+      }
+    }
+  }
+
+  /**
+   * @param key The key to add to.
+   * @param value The value to add.
+   *
+   * @return A map with {@code value} added to {@code key}'s set, or this map if it was already
+   *   present.
+   */
+  public IntSetMap with(int key, int value) {
+    var current = values[slot(keys, values, key)];
+    if (current == null) {
+      // new key, grow if we'd pass our load factor
+      int capacity = keys.length;
+      if ((size + 1) * 2 > capacity) {
+        capacity *= 2;
+      }
+      var nKeys = new int[capacity];
+      var nValues = new int[capacity][];
+      rehash(keys, values, nKeys, nValues);
+      put(nKeys, nValues, key, new int[]{value});
+
+      return new IntSetMap(nKeys, nValues, size + 1);
+    }
+
+    int idx = Arrays.binarySearch(current, value);
+    if (idx >= 0) {
+      return this;
+    }
+
+    int insertAt = -(idx + 1);
+    var set = new int[current.length + 1];
+    System.arraycopy(current, 0, set, 0, insertAt);
+    set[insertAt] = value;
+    System.arraycopy(current, insertAt, set, insertAt + 1, current.length - insertAt);
+
+    var nValues = values.clone();
+    nValues[slot(keys, values, key)] = set;
+    return new IntSetMap(keys, nValues, size);
+  }
+
+  /**
+   * @param key The key to remove from.
+   * @param value The value to remove.
+   *
+   * @return A map with {@code value} removed from {@code key}'s set, or this map if it wasn't
+   *   present. Keys left with an empty set are removed.
+   */
+  public IntSetMap without(int key, int value) {
+    int at = slot(keys, values, key);
+    var current = values[at];
+    if (current == null) {
+      return this;
+    }
+
+    int idx = Arrays.binarySearch(current, value);
+    if (idx < 0) {
+      return this;
+    }
+
+    if (current.length == 1) {
+      // removing a key from a linear probe table would break the chains behind it, rebuild instead
+      var nKeys = new int[keys.length];
+      var nValues = new int[keys.length][];
+      for (int i = 0; i < keys.length; i++) {
+        if (values[i] != null && i != at) {
+          put(nKeys, nValues, keys[i], values[i]);
+        }
+      }
+
+      return new IntSetMap(nKeys, nValues, size - 1);
+    }
+
+    var set = new int[current.length - 1];
+    System.arraycopy(current, 0, set, 0, idx);
+    System.arraycopy(current, idx + 1, set, idx, current.length - idx - 1);
+
+    var nValues = values.clone();
+    nValues[at] = set;
+    return new IntSetMap(keys, nValues, size);
+  }
+
+  /**
+   * Starts a batch of edits against a copy of this map. Useful when many keys change at once, each
+   * single {@link #with(int, int)} or {@link #without(int, int)} copies the whole table.
+   *
+   * @return An editor seeded with this map's entries.
+   */
+  public Editor edit() {
+    return new Editor(keys.clone(), values.clone(), size);
+  }
+
+  /**
+   * Calls {@code consumer} with every key in this map, in no particular order.
+   *
+   * @param consumer The consumer to call.
+   */
+  public void forEachKey(IntConsumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null) {
+        consumer.accept(keys[i]);
+      }
+    }
+  }
+
+  private static int slot(int[] keys, int[][] values, int key) {
+    int mask = keys.length - 1;
+    int i = mix(key) & mask;
+    while (values[i] != null && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+
+    return i;
+  }
+
+  private static void put(int[] keys, int[][] values, int key, int[] set) {
+    int i = slot(keys, values, key);
+    keys[i] = key;
+    values[i] = set;
+  }
+
+  private static void rehash(int[] keys, int[][] values, int[] nKeys, int[][] nValues) {
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null) {
+        put(nKeys, nValues, keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Spreads sequential ids (our common case) across the table.
+   */
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return The sorted union of two sorted, duplicate-free arrays.
+   */
+  private static int[] union(int[] a, int[] b) {
+    var ret = new int[a.length + b.length];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        ret[n++] = a[i++];
+      } else if (a[i] > b[j]) {
+        ret[n++] = b[j++];
+      } else {
+        ret[n++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length) ret[n++] = a[i++];
+    while (j < b.length) ret[n++] = b[j++];
+
+    return n == ret.length ? ret : Arrays.copyOf(ret, n);
+  }
+
+  /**
+   * @return The sorted elements of {@code a} that aren't in {@code b}. Both must be sorted and
+   *   duplicate-free.
+   */
+  private static int[] difference(int[] a, int[] b) {
+    var ret = new int[a.length];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length) {
+      while (j < b.length && b[j] < a[i]) j++;
+      if (j >= b.length || b[j] != a[i]) {
+        ret[n++] = a[i];
+      }
+      i++;
+    }
+
+    return n == ret.length ? ret : Arrays.copyOf(ret, n);
+  }
+
+  /**
+   * Applies a batch of edits to a private copy of a map's table. Not thread safe, and must not be
+   * used after {@link #build()}.
+   */
+  public static final class Editor {
+    private int[] keys;
+    private int[][] values;
+    private int size;
+    private boolean emptied;
+
+    private Editor(int[] keys, int[][] values, int size) {
+      this.keys = keys;
+      this.values = values;
+      this.size = size;
+    }
+
+    /**
+     * Adds every value to {@code key}'s set.
+     *
+     * @param key The key to add to.
+     * @param sorted The values to add, sorted ascending without duplicates.
+     *
+     * @return This editor.
+     */
+    public Editor addAll(int key, int[] sorted) {
+      if (sorted.length == 0) return this;
+
+      int at = slot(keys, values, key);
+      if (values[at] == null) {
+        if ((size + 1) * 2 > keys.length) {
+          var nKeys = new int[keys.length * 2];
+          var nValues = new int[keys.length * 2][];
+          rehash(keys, values, nKeys, nValues);
+          keys = nKeys;
+          values = nValues;
+          at = slot(keys, values, key);
+        }
+
+        keys[at] = key;
+        values[at] = sorted.clone();
+        size++;
+      } else {
+        values[at] = union(values[at], sorted);
+      }
+
+      return this;
+    }
+
+    /**
+     * Removes every value from {@code key}'s set.
+     *
+     * @param key The key to remove from.
+     * @param sorted The values to remove, sorted ascending without duplicates.
+     *
+     * @return This editor.
+     */
+    public Editor removeAll(int key, int[] sorted) {
+      int at = slot(keys, values, key);
+      if (values[at] != null) {
+        // leave emptied keys in place so we don't break probe chains, they're dropped on build
+        values[at] = difference(values[at], sorted);
+        if (values[at].length == 0) {
+          emptied = true;
+        }
+      }
+
+      return this;
+    }
+
+    public IntSetMap build() {
+      if (!emptied) {
+        return new IntSetMap(keys, values, size);
+      }
+
+      var nKeys = new int[keys.length];
+      var nValues = new int[keys.length][];
+      int nSize = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (values[i] != null && values[i].length > 0) {
+          put(nKeys, nValues, keys[i], values[i]);
+          nSize++;
+        }
+      }
+
+      return new IntSetMap(nKeys, nValues, nSize);
+    }
+  }
+
+  /**
+   * Accumulates entries and builds an {@link IntSetMap} in one pass. Not thread safe.
+   */
+  public static final class Builder {
+    private final HashMap<Integer, IntList> pending = new HashMap<>();
+
+    private Builder() {
+      //
+    }
+
+    public Builder put(int key, int value) {
+      pending.computeIfAbsent(key, k -> new IntList(4)).add(value);
+      return this;
+    }
+
+    public IntSetMap build() {
+      int capacity = 2;
+      while (capacity < pending.size() * 2) {
+        capacity *= 2;
+      }
+
+      var keys = new int[capacity];
+      var values = new int[capacity][];
+      for (var entry : pending.entrySet()) {
+        var set = entry.getValue().stream().sorted().distinct().toArray();
+        IntSetMap.put(keys, values, entry.getKey(), set);
+      }
+
+      return new IntSetMap(keys, values, pending.size());
+    }
+  }
+}
@@ -6,6 +6,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.params.SetParams;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -28,6 +29,17 @@ public class RedisMutex {
       return redis.call('del', key)
     end
         """;
+  private static final String extendIfEqualLua = """
+    local key = KEYS[1]
+    local identifier = ARGV[1]
+    local ttl = ARGV[2]
+
+    if redis.call('get', key) == identifier then
+      return redis.call('pexpire', key, ttl)
+    end
+    return 0
+        """;
+  private static final long LOCK_MILLIS = TimeUnit.MINUTES.toMillis(30);
   private static final Logger logger = LoggerFactory.getLogger(RedisMutex.class);
 
   private final String _key;
@@ -43,7 +55,7 @@ public class RedisMutex {
 
   public boolean tryLock() {
     try (var resource = this._pool.getResource()) {
-      var res = resource.set(this._key, this._identifier, new SetParams().nx().px(TimeUnit.MINUTES.toMillis(30)));
+      var res = resource.set(this._key, this._identifier, new SetParams().nx().px(LOCK_MILLIS));
       _released.set(res != null && !res.equals("OK"));
       return res != null && res.equals("OK");
     } catch (Exception e) {
@@ -52,6 +64,21 @@ public class RedisMutex {
     return false;
   }
 
+  /**
+   * Resets the lock's expiry, for holders that run longer than it.
+   *
+   * @return Whether we still held the lock. If not, another holder may already have it.
+   */
+  public boolean extend() {
+    try (var resource = this._pool.getResource()) {
+      var res = resource.eval(extendIfEqualLua, Collections.singletonList(this._key), List.of(this._identifier, String.valueOf(LOCK_MILLIS)));
+      return res instanceof Long && (Long) res == 1L;
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
   public boolean release() {
     try (var resource = this._pool.getResource()) {
       var res = resource.eval(delIfEqualLua, Collections.singletonList(this._key), Collections.singletonList(this._identifier));
@@ -6,7 +6,9 @@ import com.mtinge.TagTokenizer.tokenizer.TermModifier;
 import com.mtinge.TagTokenizer.tokenizer.Tokenizer;
 import com.mtinge.TagTokenizer.tokenizer.TagToken;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 public class TagTokenizer {
   public static LinkedList<LexToken> lex(String input) {
@@ -28,7 +30,7 @@ public class TagTokenizer {
       if (token.modifier != TermModifier.AND) {
         sb.append(" {modifier=").append(token.modifier.toString().toLowerCase()).append("}");
       }
-      if (token.type.equals(TagToken.Type.TERM)) {
+      if (!token.type.equals(TagToken.Type.GROUP)) {
         sb.append(": ").append(token.value).append("\n");
       } else {
         sb.append("\n");
@@ -39,6 +41,49 @@ public class TagTokenizer {
     }
   }
 
+  /**
+   * Renders tokens in a canonical form. Siblings are sorted and terms are lowercased, so queries
+   * that only differ in term order or case render the same. Suitable as a cache key.
+   *
+   * @param tokens The tokens to render.
+   *
+   * @return The canonical form.
+   */
+  @SuppressWarnings("ConstantConditions")
+  public static String canonicalize(List<TagToken> tokens) {
+    var rendered = new ArrayList<String>(tokens.size());
+    for (var token : tokens) {
+      var prefix = switch (token.modifier) {
+        case AND -> "+";
+        case NOT -> "-";
+        case OR -> "~";
+      };
+      if (token.type.equals(TagToken.Type.RANGE)) {
+        // already canonical
+        rendered.add(prefix + token.value);
+      } else if (token.type.equals(TagToken.Type.TERM)) {
+        rendered.add(prefix + escape(token.value.toLowerCase().trim()));
+      } else {
+        rendered.add(prefix + "(" + canonicalize(token.children) + ")");
+      }
+    }
+    rendered.sort(null);
+
+    return String.join(" ", rendered);
+  }
+
+  private static String escape(String value) {
+    var sb = new StringBuilder(value.length());
+    for (var c : value.toCharArray()) {
+      if (c == '\\' || c == '(' || c == ')' || c == ' ') {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+
+    return sb.toString();
+  }
+
   public static String explain(LinkedList<TagToken> tokens) {
     var sb = new StringBuilder();
 
@@ -0,0 +1,169 @@
+package com.mtinge.TagTokenizer.tokenizer;
+
+import com.mtinge.TagTokenizer.SyntaxError;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A numeric range over one of an upload's media fields, written as
+ * <code>field:comparison</code>. Supported comparisons are:</p>
+ * <pre>
+ *   width:1920        exactly 1920
+ *   width:&gt;1920       more than 1920, also &gt;=, &lt;, and &lt;=
+ *   duration:10..60   between 10 and 60 seconds inclusive, either end may be left open
+ * </pre>
+ * <p>Durations accept <code>ms</code>, <code>s</code>, <code>m</code>, and <code>h</code> units and
+ * default to seconds. File sizes accept <code>b</code>, <code>kb</code>, <code>mb</code>, and
+ * <code>gb</code> units and default to bytes. Bounds are stored in the base unit.</p>
+ */
+public final class RangeTerm {
+  private static final Pattern NUMBER = Pattern.compile("^([0-9]+(?:\\.[0-9]+)?)([a-z]*)$");
+
+  public enum Field {
+    WIDTH("width", Map.of("", 1d, "px", 1d)),
+    HEIGHT("height", Map.of("", 1d, "px", 1d)),
+    DURATION("duration", Map.of("", 1d, "ms", 0.001d, "s", 1d, "m", 60d, "h", 3600d)),
+    FILESIZE("filesize", Map.of("", 1d, "b", 1d, "k", 1024d, "kb", 1024d, "m", 1024d * 1024, "mb", 1024d * 1024, "g", 1024d * 1024 * 1024, "gb", 1024d * 1024 * 1024));
+
+    public final String name;
+    private final Map<String, Double> units;
+
+    Field(String name, Map<String, Double> units) {
+      this.name = name;
+      this.units = units;
+    }
+
+    @Nullable
+    static Field of(String name) {
+      for (var field : values()) {
+        if (field.name.equals(name)) {
+          return field;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  public final Field field;
+  /**
+   * The lower bound in the field's base unit, or null if unbounded.
+   */
+  @Nullable
+  public final Double from;
+  public final boolean includeFrom;
+  /**
+   * The upper bound in the field's base unit, or null if unbounded.
+   */
+  @Nullable
+  public final Double to;
+  public final boolean includeTo;
+
+  public RangeTerm(Field field, @Nullable Double from, boolean includeFrom, @Nullable Double to, boolean includeTo) {
+    this.field = field;
+    this.from = from;
+    this.includeFrom = includeFrom;
+    this.to = to;
+    this.includeTo = includeTo;
+  }
+
+  /**
+   * Parses a term as a range. Terms that don't name a range field, or whose value isn't shaped like
+   * a comparison (e.g. the system tag <code>filesize:large</code>), are not ranges.
+   *
+   * @param term The raw term.
+   * @param index The term's index in the input, for error reporting.
+   *
+   * @return The parsed range, or null if the term is not a range.
+   *
+   * @throws SyntaxError If the term looks like a range but can't be parsed.
+   */
+  @Nullable
+  public static RangeTerm parse(String term, int index) throws SyntaxError {
+    int colon = term.indexOf(':');
+    if (colon <= 0) return null;
+
+    var field = Field.of(term.substring(0, colon).toLowerCase());
+    if (field == null) return null;
+
+    var value = term.substring(colon + 1).toLowerCase().trim();
+    if (value.isEmpty()) return null;
+    char first = value.charAt(0);
+    if (!(Character.isDigit(first) || first == '<' || first == '>' || first == '=' || first == '.')) {
+      return null;
+    }
+
+    RangeTerm ret;
+    int dots = value.indexOf("..");
+    if (dots >= 0) {
+      var lower = value.substring(0, dots);
+      var upper = value.substring(dots + 2);
+      if (lower.isEmpty() && upper.isEmpty()) {
+        throw new SyntaxError("Empty range for " + field.name + " at " + index + ".");
+      }
+
+      ret = new RangeTerm(
+        field,
+        lower.isEmpty() ? null : number(field, lower, index), true,
+        upper.isEmpty() ? null : number(field, upper, index), true
+      );
+    } else if (value.startsWith(">=")) {
+      ret = new RangeTerm(field, number(field, value.substring(2), index), true, null, false);
+    } else if (value.startsWith(">")) {
+      ret = new RangeTerm(field, number(field, value.substring(1), index), false, null, false);
+    } else if (value.startsWith("<=")) {
+      ret = new RangeTerm(field, null, false, number(field, value.substring(2), index), true);
+    } else if (value.startsWith("<")) {
+      ret = new RangeTerm(field, null, false, number(field, value.substring(1), index), false);
+    } else {
+      var exact = number(field, value.startsWith("=") ? value.substring(1) : value, index);
+      ret = new RangeTerm(field, exact, true, exact, true);
+    }
+
+    if (ret.from != null && ret.to != null && ret.from > ret.to) {
+      throw new SyntaxError("Inverted range for " + field.name + " at " + index + ".");
+    }
+
+    return ret;
+  }
+
+  private static double number(Field field, String value, int index) throws SyntaxError {
+    var matcher = NUMBER.matcher(value);
+    if (!matcher.matches()) {
+      throw new SyntaxError("Invalid number for " + field.name + " at " + index + ".");
+    }
+
+    var unit = field.units.get(matcher.group(2));
+    if (unit == null) {
+      throw new SyntaxError("Unknown unit \"" + matcher.group(2) + "\" for " + field.name + " at " + index + ".");
+    }
+
+    return Double.parseDouble(matcher.group(1)) * unit;
+  }
+
+  private static String render(double value) {
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * @return The range in a canonical form, bounds rendered in the field's base unit.
+   */
+  @Override
+  public String toString() {
+    var sb = new StringBuilder(field.name).append(':');
+    if (from != null && from.equals(to)) {
+      sb.append(render(from));
+    } else if (from != null && to != null) {
+      sb.append(render(from)).append("..").append(render(to));
+    } else if (from != null) {
+      sb.append(includeFrom ? ">=" : ">").append(render(from));
+    } else if (to != null) {
+      sb.append(includeTo ? "<=" : "<").append(render(to));
+    }
+
+    return sb.toString();
+  }
+}
@@ -8,7 +8,8 @@ import java.util.LinkedList;
 public class TagToken {
   public enum Type {
     GROUP,
-    TERM
+    TERM,
+    RANGE
   }
 
   public final TagToken.Type type;
@@ -17,12 +18,23 @@ public class TagToken {
   public final String value;
   @Nullable
   public final LinkedList<TagToken> children;
+  @Nullable
+  public final RangeTerm range;
 
   public TagToken(Type type, TermModifier modifier, @NotNull String value) {
     this.type = type;
     this.modifier = modifier;
     this.value = value;
     this.children = null;
+    this.range = null;
+  }
+
+  public TagToken(TermModifier modifier, @NotNull RangeTerm range) {
+    this.type = Type.RANGE;
+    this.modifier = modifier;
+    this.value = range.toString();
+    this.children = null;
+    this.range = range;
   }
 
   public TagToken(Type type, TermModifier modifier, @NotNull LinkedList<TagToken> children) {
@@ -30,5 +42,6 @@ public class TagToken {
     this.modifier = modifier;
     this.value = null;
     this.children = children;
+    this.range = null;
   }
 }
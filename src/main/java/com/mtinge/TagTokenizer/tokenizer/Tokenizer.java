@@ -60,6 +60,10 @@ import java.util.List;
  * </pre>
  * This keeps things relatively relaxed and lets the search processor handle groups however it
  * pleases.
+ * </p>
+ * <p>
+ * Terms that compare one of an upload's media fields against a number, e.g.
+ * <code>width:&gt;1920</code>, are emitted as 'RANGE' tokens instead. See {@link RangeTerm}.
  *
  * @author MidnightTinge
  */
@@ -145,7 +149,14 @@ public class Tokenizer {
           // Consume all sequencial char lexer tokens to create a string
           sb.append(lexed[i++].value);
         } while (i < lexed.length && (lexed[i].type == LexToken.Type.CHAR || lexed[i].type == LexToken.Type.CHAR_ESCAPED));
-        tokens.add(new TagToken(TagToken.Type.TERM, modifier == null ? TermModifier.AND : modifier, sb.toString()));
+
+        // Terms shaped like `width:>1920` are numeric ranges rather than tags
+        var range = RangeTerm.parse(sb.toString(), token.index);
+        if (range != null) {
+          tokens.add(new TagToken(modifier == null ? TermModifier.AND : modifier, range));
+        } else {
+          tokens.add(new TagToken(TagToken.Type.TERM, modifier == null ? TermModifier.AND : modifier, sb.toString()));
+        }
         modifier = null; // ensure modifier resets
       } else if (token.type == LexToken.Type.SEPARATOR) {
         // Separator has no purpose other than to make EndOfTerm. Increment our counter and spin.
@@ -1,9 +1,11 @@
 package com.mtinge.yuugure;
 
 import com.mtinge.yuugure.core.Config;
+import com.mtinge.yuugure.core.SimilarityIndex.SimilarityIndex;
 import com.mtinge.yuugure.core.TagManager.TagCategory;
 import com.mtinge.yuugure.core.TagManager.TagDescriptor;
 import com.mtinge.yuugure.core.TagManager.TagManager;
+import com.mtinge.yuugure.services.IService;
 import com.mtinge.yuugure.services.cli.CLI;
 import com.mtinge.yuugure.services.database.Database;
 import com.mtinge.yuugure.services.elastic.Elastic;
@@ -22,10 +24,15 @@ import java.util.Map;
 public class App {
   private static final Logger logger = LoggerFactory.getLogger(App.class);
   private static final boolean debug = System.getProperty("debug", "false").equalsIgnoreCase("true");
+  /**
+   * How long each service gets to stop. Elastic waits up to 30 seconds for its final flush.
+   */
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 35_000;
 
   // utils
   private static Config config;
   private static TagManager tagManager;
+  private static SimilarityIndex similarity;
 
   // services
   private static WebServer webServer;
@@ -40,6 +47,7 @@ public class App {
     try {
       config = Config.read(Path.of("./config.json").toFile());
       tagManager = new TagManager();
+      similarity = new SimilarityIndex();
 
       database = new Database();
       redis = new Redis();
@@ -62,6 +70,10 @@ public class App {
       mediaProcessor.init();
       cli.init();
       webServer.init();
+
+      tagManager.subscribe();
+      similarity.subscribe();
+      elastic.subscribe();
     } catch (Exception e) {
       throw new Error("Failed to initialize services.", e);
     }
@@ -73,6 +85,9 @@ public class App {
       messaging.start();
 
       tagManager.reload();
+      tagManager.startUsageReconciler();
+      similarity.reload();
+      elastic.startDriftReconciler();
       ensureDefaultTags();
 
       mediaProcessor.start();
@@ -81,6 +96,51 @@ public class App {
     } catch (Exception e) {
       throw new Error("Failed to start services.", e);
     }
+
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "yuugure-shutdown"));
+  }
+
+  /**
+   * Stops services in the reverse order they were started, so nothing is still accepting work
+   * while what it depends on shuts down. Elastic flushes its queued writes here.
+   */
+  private void stop() {
+    logger.info("Shutting down...");
+    stop("webserver", webServer);
+    stop("cli", cli);
+    stop("mediaProcessor", mediaProcessor);
+    stop("messaging", messaging);
+    stop("elastic", elastic);
+    try {
+      tagManager.flushUsage();
+    } catch (Exception e) {
+      logger.error("Failed to flush tag usage.", e);
+    }
+    stop("database", database);
+    stop("redis", redis);
+    logger.info("Shut down.");
+  }
+
+  private void stop(String name, IService service) {
+    // a service that hangs while stopping must not keep the rest from stopping
+    var stopper = new Thread(() -> {
+      try {
+        service.stop();
+      } catch (Exception e) {
+        logger.error("Failed to stop {}.", name, e);
+      }
+    }, "yuugure-shutdown-" + name);
+    stopper.setDaemon(true);
+    stopper.start();
+
+    try {
+      stopper.join(SHUTDOWN_TIMEOUT_MILLIS);
+      if (stopper.isAlive()) {
+        logger.warn("Timed out stopping {}.", name);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private void ensureDefaultTags() {
@@ -113,6 +173,7 @@ public class App {
       new TagDescriptor(TagCategory.LENGTH, "very_long"),
 
       new TagDescriptor(TagCategory.MISC, "tagme"),
+      new TagDescriptor(TagCategory.MISC, "possible_duplicate"),
 
       metaHasAudio,
       new TagDescriptor(TagCategory.META, "video"),
@@ -182,6 +243,10 @@ public class App {
     return elastic;
   }
 
+  public static SimilarityIndex similarity() {
+    return similarity;
+  }
+
   public static boolean isDebug() {
     return debug;
   }
@@ -42,6 +42,9 @@ public final class Config {
   public final Postgres postgres;
   public final Redis redis;
   public final ZeroMQ zeromq;
+  public final Search search;
+  public final Similarity similarity;
+  public final Processing processing;
 
 
   private Config() {
@@ -52,6 +55,9 @@ public final class Config {
     this.postgres = new Postgres();
     this.redis = new Redis();
     this.zeromq = new ZeroMQ();
+    this.search = new Search();
+    this.similarity = new Similarity();
+    this.processing = new Processing();
   }
 
   @AllArgsConstructor
@@ -103,11 +109,51 @@ public final class Config {
   @AllArgsConstructor
   public static final class Elasticsearch {
     public final List<NodeConfig> nodes;
+    /**
+     * Queued writes are flushed as a bulk request once this many have queued up.
+     */
+    public final int bulkActions;
+    /**
+     * Queued writes are flushed as a bulk request once they total this many kilobytes.
+     */
+    public final int bulkSizeKb;
+    /**
+     * The longest a queued write waits before being flushed, in milliseconds.
+     */
+    public final int bulkFlushMillis;
+    /**
+     * How many times a bulk request rejected by a busy cluster is retried.
+     */
+    public final int bulkRetries;
+    /**
+     * How many upload rows a reindex fetches from the database per round-trip.
+     */
+    public final int reindexFetchSize;
+    /**
+     * How often, in minutes, indexed uploads are checked against the database.
+     */
+    public final int driftCheckMinutes;
+    /**
+     * How many upload IDs each drift check step covers.
+     */
+    public final int driftCheckBatch;
+    /**
+     * How long the drift check pauses between steps, in milliseconds.
+     */
+    public final int driftCheckPauseMillis;
 
     public Elasticsearch() {
       this.nodes = List.of(
         new NodeConfig("127.0.0.1", 9200)
       );
+      this.bulkActions = 500;
+      this.bulkSizeKb = 5120;
+      this.bulkFlushMillis = 1000;
+      this.bulkRetries = 5;
+      this.reindexFetchSize = 1000;
+      this.driftCheckMinutes = 60;
+      this.driftCheckBatch = 500;
+      this.driftCheckPauseMillis = 250;
     }
 
     @AllArgsConstructor
@@ -123,12 +169,37 @@ public final class Config {
     public final String finalDir;
     public final long maxFileSize;
     public final String validMimesPattern;
+    public final Thumbnails thumbnails;
 
     public Upload() {
       this.tempDir = "./data/uploads/temp/";
       this.finalDir = "./data/uploads/final/";
       this.maxFileSize = -1;
       this.validMimesPattern = "^(image|video)/.{2,}$";
+
+      this.thumbnails = new Thumbnails();
+    }
+
+    @AllArgsConstructor
+    public static final class Thumbnails {
+      /**
+       * The sizes, in pixels along the longest side, thumbnails are rendered at. Sizes larger than
+       * the source are skipped. The 200px thumbnail is always rendered.
+       */
+      public final List<Integer> sizes;
+      /**
+       * The formats rendered alongside PNG, in order of preference. PNG is always rendered as the
+       * fallback. Supported formats are <code>webp</code> and <code>avif</code>, the latter needs
+       * an ffmpeg built with libaom. WebP by default, it keeps the larger sizes the grid serves to
+       * 2x displays smaller than the base PNG. Still images encode every extra format from their
+       * PNGs in one ffmpeg run, see {@link com.mtinge.yuugure.services.processor.Thumbnails}.
+       */
+      public final List<String> formats;
+
+      public Thumbnails() {
+        this.sizes = List.of(200, 400, 800);
+        this.formats = List.of("webp");
+      }
     }
   }
 
@@ -176,4 +247,104 @@ public final class Config {
     }
   }
 
+  @AllArgsConstructor
+  public static final class Search {
+    /**
+     * The most tags a single wildcard term may expand to. Extra matches are dropped, lowest ranked
+     * first, and the user is told their search was truncated.
+     */
+    public final int maxWildcardExpansions;
+    /**
+     * How often, in minutes, tag usage counts are recounted from <code>upload_tags</code>.
+     */
+    public final int usageReconcileMinutes;
+    /**
+     * How many tag IDs each usage reconcile statement covers.
+     */
+    public final int usageReconcileBatch;
+    /**
+     * How often, in milliseconds, usage count changes are written to the <code>tag</code> table.
+     */
+    public final int usageFlushMillis;
+    /**
+     * The longest prefix, in characters, that has its completions precomputed. Longer prefixes are
+     * ranked on request.
+     */
+    public final int completionDepth;
+    /**
+     * How many completions are kept per precomputed prefix, and the most a request may ask for.
+     */
+    public final int completionSize;
+    /**
+     * Results for pages up to this one are cached, deeper pages always query elastic.
+     */
+    public final int resultCachePages;
+    /**
+     * The most co-occurring tags a facet request may ask for.
+     */
+    public final int facetSize;
+
+    public Search() {
+      this.maxWildcardExpansions = 1024;
+      this.usageReconcileMinutes = 30;
+      this.usageReconcileBatch = 5000;
+      this.usageFlushMillis = 1000;
+      this.completionDepth = 3;
+      this.completionSize = 20;
+      this.resultCachePages = 3;
+      this.facetSize = 20;
+    }
+  }
+
+  @AllArgsConstructor
+  public static final class Similarity {
+    /**
+     * The largest Hamming distance, out of 64 bits, a similarity lookup may ask for. Lookups get
+     * slower as the distance grows and anything past ~12 bits is rarely the same image.
+     */
+    public final int maxDistance;
+    /**
+     * Newly processed media within this distance of an existing one are tagged as a possible
+     * duplicate.
+     */
+    public final int duplicateDistance;
+    /**
+     * The most similar uploads returned for a single upload.
+     */
+    public final int resultSize;
+    /**
+     * How many rows are fetched at a time when loading hashes on startup.
+     */
+    public final int loadFetchSize;
+
+    public Similarity() {
+      this.maxDistance = 10;
+      this.duplicateDistance = 4;
+      this.resultSize = 50;
+      this.loadFetchSize = 10000;
+    }
+  }
+
+  @AllArgsConstructor
+  public static final class Processing {
+    /**
+     * The relative share of dequeues given to new uploads while other lanes have work.
+     */
+    public final int interactiveWeight;
+    /**
+     * The relative share of dequeues given to backfilled uploads.
+     */
+    public final int backfillWeight;
+    /**
+     * The relative share of dequeues given to a full reprocess.
+     */
+    public final int reprocessWeight;
+
+    public Processing() {
+      this.interactiveWeight = 16;
+      this.backfillWeight = 3;
+      this.reprocessWeight = 1;
+    }
+  }
+
 }
@@ -1,7 +1,9 @@
 package com.mtinge.yuugure.core;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.yuugure.core.adapters.DurationAdapter;
 import com.mtinge.yuugure.core.adapters.InstantAdapter;
+import com.mtinge.yuugure.core.adapters.IntListAdapter;
 import com.mtinge.yuugure.core.adapters.ResponseAdapter;
 import com.mtinge.yuugure.core.adapters.SqlTimestampAdapter;
 import com.mtinge.yuugure.data.http.Response;
@@ -24,6 +26,7 @@ public class MoshiFactory {
     return new Moshi.Builder()
       .add(Duration.class, new DurationAdapter())
       .add(Instant.class, new InstantAdapter())
+      .add(IntList.class, new IntListAdapter())
       .add(Response.class, new ResponseAdapter())
       .add(Timestamp.class, new SqlTimestampAdapter())
       .build();
@@ -53,8 +53,15 @@ public class PrometheusMetrics {
 
   // Search
   public static final Counter SEARCH_TOTAL = Counter.build().namespace("yuugure_search").name("total_searches").labelNames("authed").help("The total number of searches served by the app.").register();
+  public static final Counter SEARCH_CACHE_HITS = Counter.build().namespace("yuugure_search").name("cache_hits").help("The total number of searches served from the result cache.").register();
+  public static final Counter SEARCH_CACHE_MISSES = Counter.build().namespace("yuugure_search").name("cache_misses").help("The total number of cacheable searches that had to query elastic.").register();
 
   // Elastic client-side tracking
   //  Note: It is expected to run node_exporter to get server-side metrics, so these will only cover client-side jobs.
   public static final Counter ELASTIC_IO_ERRORS = Counter.build().namespace("yuugure_elastic").name("io_errors").labelNames("job").help("The total number of IOExceptions caught by the client.").register();
+  public static final Gauge ELASTIC_BULK_QUEUED = Gauge.build().namespace("yuugure_elastic").name("bulk_queued").help("The number of writes queued or in flight to the bulk indexer.").register();
+  public static final Histogram ELASTIC_BULK_FLUSH_SECONDS = Histogram.build().namespace("yuugure_elastic").name("bulk_flush_seconds").help("The time taken by each bulk request in seconds, including retries.").register();
+  public static final Counter ELASTIC_BULK_FAILURES = Counter.build().namespace("yuugure_elastic").name("bulk_failures").labelNames("reason").help("The total number of writes the bulk indexer failed to apply.").register();
+  public static final Gauge ELASTIC_DRIFT_LAST = Gauge.build().namespace("yuugure_elastic").name("drift_last_pass").help("The number of upload documents that had drifted from the database in the last drift check.").register();
+  public static final Counter ELASTIC_DRIFT_REPAIRED = Counter.build().namespace("yuugure_elastic").name("drift_repaired").help("The total number of drifted upload documents rewritten from the database.").register();
 }
@@ -0,0 +1,146 @@
+package com.mtinge.yuugure.core.SimilarityIndex;
+
+import com.mtinge.IntCollections.IntList;
+import com.mtinge.yuugure.services.processor.PerceptualHash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>A multi-index hash table over 64-bit perceptual hashes. Each hash is split into four 16-bit
+ * chunks and every chunk is indexed in its own table. Two hashes within a Hamming distance of
+ * <code>r</code> must have at least one chunk within <code>r / 4</code> bits of each other, so a
+ * query only needs to visit the buckets near each of its own chunks instead of every hash.</p>
+ * <p>Entries are stored in flat arrays and referenced by slot, which keeps millions of hashes
+ * compact. Removed entries are tombstoned in place, they're rare enough that compacting isn't worth
+ * it.</p>
+ * <p>Not thread-safe, callers must synchronize.</p>
+ */
+final class HashIndex {
+  private static final int CHUNKS = 4;
+  private static final int CHUNK_BITS = 64 / CHUNKS;
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+  private static final int REMOVED = -1;
+
+  private final IntList[][] tables = new IntList[CHUNKS][1 << CHUNK_BITS];
+  private long[] hashes = new long[1024];
+  private int[] media = new int[1024];
+  private int slots = 0;
+  private int size = 0;
+
+  /**
+   * @return The number of hashes stored.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Stores a media's hash. Storing the same media and hash twice is a no-op.
+   */
+  void put(int mediaId, long hash) {
+    if (find(mediaId, hash) >= 0) {
+      return;
+    }
+
+    if (slots == hashes.length) {
+      hashes = Arrays.copyOf(hashes, slots * 2);
+      media = Arrays.copyOf(media, slots * 2);
+    }
+
+    int slot = slots++;
+    hashes[slot] = hash;
+    media[slot] = mediaId;
+    for (int c = 0; c < CHUNKS; c++) {
+      var bucket = tables[c][chunk(hash, c)];
+      if (bucket == null) {
+        bucket = tables[c][chunk(hash, c)] = new IntList(4);
+      }
+      bucket.add(slot);
+    }
+    size++;
+  }
+
+  /**
+   * Removes a media's hash, if it's stored.
+   */
+  void remove(int mediaId, long hash) {
+    int slot = find(mediaId, hash);
+    if (slot >= 0) {
+      media[slot] = REMOVED;
+      size--;
+    }
+  }
+
+  /**
+   * Finds every stored hash within {@code maxDistance} bits of {@code hash}.
+   *
+   * @param hash The hash to compare against.
+   * @param maxDistance The largest Hamming distance to include.
+   *
+   * @return The matches, closest first.
+   */
+  List<SimilarMedia> within(long hash, int maxDistance) {
+    var ret = new ArrayList<SimilarMedia>();
+    var seen = new BitSet(slots);
+    int radius = maxDistance / CHUNKS;
+
+    for (int c = 0; c < CHUNKS; c++) {
+      var table = tables[c];
+      neighbours(chunk(hash, c), radius, 0, value -> {
+        var bucket = table[value];
+        if (bucket == null) return;
+
+        for (int i = 0; i < bucket.size(); i++) {
+          int slot = bucket.get(i);
+          if (seen.get(slot)) continue;
+          seen.set(slot);
+
+          if (media[slot] == REMOVED) continue;
+          int distance = PerceptualHash.distance(hash, hashes[slot]);
+          if (distance <= maxDistance) {
+            ret.add(new SimilarMedia(media[slot], distance));
+          }
+        }
+      });
+    }
+
+    ret.sort(Comparator.<SimilarMedia>comparingInt(m -> m.distance).thenComparingInt(m -> m.media));
+    return ret;
+  }
+
+  private int find(int mediaId, long hash) {
+    var bucket = tables[0][chunk(hash, 0)];
+    if (bucket != null) {
+      for (int i = 0; i < bucket.size(); i++) {
+        int slot = bucket.get(i);
+        if (media[slot] == mediaId && hashes[slot] == hash) {
+          return slot;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private static int chunk(long hash, int index) {
+    return (int) (hash >>> (index * CHUNK_BITS)) & CHUNK_MASK;
+  }
+
+  /**
+   * Calls {@code consumer} with every value within {@code radius} bits of {@code value}, each
+   * exactly once.
+   */
+  private static void neighbours(int value, int radius, int from, IntConsumer consumer) {
+    consumer.accept(value);
+    if (radius == 0) return;
+
+    for (int bit = from; bit < CHUNK_BITS; bit++) {
+      neighbours(value ^ (1 << bit), radius - 1, bit + 1, consumer);
+    }
+  }
+}
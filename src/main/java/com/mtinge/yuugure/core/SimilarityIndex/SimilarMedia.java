@@ -0,0 +1,12 @@
+package com.mtinge.yuugure.core.SimilarityIndex;
+
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class SimilarMedia {
+  public final int media;
+  /**
+   * The Hamming distance between the two media's hashes, out of 64 bits.
+   */
+  public final int distance;
+}
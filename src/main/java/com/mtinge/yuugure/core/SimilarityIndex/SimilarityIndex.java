@@ -0,0 +1,153 @@
+package com.mtinge.yuugure.core.SimilarityIndex;
+
+import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.services.processor.PerceptualHash;
+import com.mtinge.yuugure.services.redis.PubSubListener;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Finds media with similar perceptual hashes. Every hashed media is held in memory in a
+ * {@link HashIndex}, loaded from <code>media.phash</code> on startup, so lookups never have to scan
+ * the table.</p>
+ * <p>Hashes written on one node are published to the others. A node that lost its subscription
+ * may have missed some, so it reloads from the database when it resubscribes.</p>
+ */
+public class SimilarityIndex {
+  private static final Logger logger = LoggerFactory.getLogger(SimilarityIndex.class);
+  private static final String CHANNEL = "yuugure:similarity";
+  private static final String NO_PREVIOUS = "-";
+
+  private HashIndex index = new HashIndex();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile boolean loaded = false;
+
+  public void subscribe() {
+    App.redis().subscribe(CHANNEL, new PubSubListener() {
+      @Override
+      public void onMessage(String message) {
+        handleEvent(message);
+      }
+
+      @Override
+      public void onSubscribed() {
+        if (loaded) {
+          reload();
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces the index with every hash stored in the database.
+   */
+  public void reload() {
+    var fetched = new HashIndex();
+    var count = App.database().jdbi().inTransaction(handle -> {
+      // stream the table, it can hold millions of rows
+      try (var rows = handle.createQuery("SELECT id, phash FROM media WHERE phash <> ''")
+        .setFetchSize(App.config().similarity.loadFetchSize)
+        .map((rs, ctx) -> new Object[]{rs.getInt("id"), rs.getString("phash")})
+        .stream()) {
+        int ret = 0;
+        for (var it = rows.iterator(); it.hasNext(); ) {
+          var row = it.next();
+          var hash = PerceptualHash.fromHex((String) row[1]);
+          if (hash != null) {
+            fetched.put((Integer) row[0], hash);
+            ret++;
+          }
+        }
+
+        return ret;
+      }
+    });
+
+    lock.writeLock().lock();
+    try {
+      // built outside the lock so lookups keep working while the table is read
+      index = fetched;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    loaded = true;
+    logger.info("Loaded {} media hashes.", count);
+  }
+
+  /**
+   * Stores a media's hash and tells the other nodes about it.
+   *
+   * @param media The media's ID.
+   * @param phash The media's new hash.
+   * @param previous The media's previous hash, if it had one.
+   */
+  public void put(int media, String phash, @Nullable String previous) {
+    apply(media, phash, previous);
+    App.redis().publish(CHANNEL, media + " " + phash + " " + (previous == null || previous.isBlank() ? NO_PREVIOUS : previous));
+  }
+
+  /**
+   * Finds media similar to a hash.
+   *
+   * @param phash The hash to compare against.
+   * @param maxDistance The largest Hamming distance to include, capped to the configured maximum.
+   * @param limit The most media to return.
+   * @param exclude A media ID to leave out of the results, typically the one being compared.
+   *
+   * @return The similar media, closest first.
+   */
+  public List<SimilarMedia> similar(String phash, int maxDistance, int limit, int exclude) {
+    var hash = PerceptualHash.fromHex(phash);
+    if (hash == null) {
+      return List.of();
+    }
+
+    List<SimilarMedia> found;
+    lock.readLock().lock();
+    try {
+      found = index.within(hash, Math.min(maxDistance, App.config().similarity.maxDistance));
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    return found.stream()
+      .filter(m -> m.media != exclude)
+      .limit(limit)
+      .collect(Collectors.toList());
+  }
+
+  private void handleEvent(String message) {
+    var parts = message.split(" ");
+    if (parts.length != 3 || !parts[0].matches("^[0-9]+$")) {
+      logger.warn("Ignoring malformed similarity event \"{}\".", message);
+      return;
+    }
+
+    // our own events come back to us too, applying them again is a no-op
+    apply(Integer.parseInt(parts[0]), parts[1], parts[2].equals(NO_PREVIOUS) ? null : parts[2]);
+  }
+
+  private void apply(int media, String phash, @Nullable String previous) {
+    var hash = PerceptualHash.fromHex(phash);
+    if (hash == null) {
+      return;
+    }
+    var old = PerceptualHash.fromHex(previous);
+
+    lock.writeLock().lock();
+    try {
+      if (old != null && !old.equals(hash)) {
+        index.remove(media, old);
+      }
+      index.put(media, hash);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -3,6 +3,8 @@ package com.mtinge.yuugure.core.TagManager;
 import com.mtinge.yuugure.data.postgres.DBTag;
 import lombok.AllArgsConstructor;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @AllArgsConstructor
 public class MutableTag {
   public final int id;
@@ -11,12 +13,34 @@ public class MutableTag {
   public String name;
   public String assocType;
   public Integer assocId;
+  /**
+   * The number of uploads using this tag. Adjusted as uploads are tagged and periodically
+   * reconciled against the database, so it can briefly drift from the true count.
+   */
+  public final AtomicInteger usage;
+
+  public MutableTag(int id, Integer parent, String category, String name, String assocType, Integer assocId) {
+    this(id, parent, category, name, assocType, assocId, new AtomicInteger());
+  }
 
   public DBTag toDb() {
-    return new DBTag(id, parent, category, name, assocType, assocId);
+    return new DBTag(id, parent, category, name, assocType, assocId, usage.get());
   }
 
   public static MutableTag fromDb(DBTag tag) {
-    return new MutableTag(tag.id, tag.parent, tag.category, tag.name, tag.assocType, tag.assocId);
+    return fromDb(tag, new AtomicInteger(tag.usageCount));
+  }
+
+  /**
+   * Creates a copy of {@code tag} that shares an existing usage counter, so adjustments made to the
+   * copy being replaced still land on the replacement.
+   *
+   * @param tag The tag to copy.
+   * @param usage The usage counter to share.
+   *
+   * @return The new {@link MutableTag}.
+   */
+  public static MutableTag fromDb(DBTag tag, AtomicInteger usage) {
+    return new MutableTag(tag.id, tag.parent, tag.category, tag.name, tag.assocType, tag.assocId, usage);
   }
 }
@@ -2,23 +2,23 @@ package com.mtinge.yuugure.core.TagManager;
 
 public enum SearchMode {
   /**
-   * Denotes a search in which the prefix is the most significant bit, e.g. "term*" <br />Can short
-   * circuit
+   * Denotes a search in which the prefix is the most significant bit, e.g. "term*" <br />Answered
+   * by the forward tree
    */
   PREFIX,
   /**
-   * Denotes a search in which the suffix is the most significant bit, e.g. "*term" <br />Can not
-   * short circuit
+   * Denotes a search in which the suffix is the most significant bit, e.g. "*term" <br />Answered
+   * by the reversed tree
    */
   SUFFIX,
   /**
-   * Denotes a search in which the prefix and suffix are both anchors, e.g. "te*rm" <br />Can short
-   * circuit
+   * Denotes a search in which the prefix and suffix are both anchors, e.g. "te*rm" <br />Answered
+   * by the forward tree, filtered on the suffix
    */
   MIDDLE,
   /**
    * Denotes a search in which neither the prefix nor the suffix are the most significant bit, e.g.
-   * "*term*" <br />Can not short circuit
+   * "*term*" <br />Answered by the trigram index
    */
   WRAPPED,
 }
@@ -0,0 +1,148 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import com.mtinge.IntCollections.IntSetMap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * <p>The transitive closure of the tag hierarchy: every tag's full set of descendants and
+ * ancestors. Lets a search for a tag expand to its whole subtree with a single lookup instead of
+ * walking the hierarchy per query.</p>
+ * <p>Tags have at most one parent so the hierarchy is a forest. That keeps re-parenting cheap, a
+ * tag's ancestors are exactly the tags whose descendant sets contain its subtree. Instances are
+ * immutable, changes return a new closure.</p>
+ */
+final class TagClosure {
+  private static final TagClosure EMPTY = new TagClosure(IntSetMap.empty(), IntSetMap.empty());
+
+  final IntSetMap descendants;
+  final IntSetMap ancestors;
+
+  private TagClosure(IntSetMap descendants, IntSetMap ancestors) {
+    this.descendants = descendants;
+    this.ancestors = ancestors;
+  }
+
+  static TagClosure empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Builds the closure from every tag's direct parent.
+   *
+   * @param parents A map of child ID to parent ID.
+   *
+   * @return The computed closure.
+   */
+  static TagClosure of(Map<Integer, Integer> parents) {
+    var descendants = IntSetMap.builder();
+    var ancestors = IntSetMap.builder();
+
+    var seen = new HashSet<Integer>();
+    for (var child : parents.keySet()) {
+      seen.clear();
+      seen.add(child);
+
+      var parent = parents.get(child);
+      while (parent != null && seen.add(parent)) {
+        descendants.put(parent, child);
+        ancestors.put(child, parent);
+        parent = parents.get(parent);
+      }
+    }
+
+    return new TagClosure(descendants.build(), ancestors.build());
+  }
+
+  /**
+   * @param child The tag that would be moved.
+   * @param parent The tag it would be moved under.
+   *
+   * @return Whether making {@code parent} the parent of {@code child} would create a cycle.
+   */
+  boolean wouldCycle(int child, int parent) {
+    return child == parent || descendants.contains(child, parent);
+  }
+
+  /**
+   * Moves {@code child} and its subtree under a new parent.
+   *
+   * @param child The tag being moved.
+   * @param parent The new parent, or null to detach the subtree.
+   *
+   * @return The updated closure, or this closure if the move would create a cycle.
+   */
+  TagClosure reparent(int child, Integer parent) {
+    if (parent != null && wouldCycle(child, parent)) {
+      return this;
+    }
+
+    // the subtree being moved
+    var subtree = union(descendants.get(child), child);
+
+    var nDescendants = descendants.edit();
+    var nAncestors = ancestors.edit();
+
+    // detach from every current ancestor. in a forest they all reach the subtree through our old
+    // parent, so none of them keep any of it.
+    var oldAncestors = ancestors.get(child);
+    for (var ancestor : oldAncestors) {
+      nDescendants.removeAll(ancestor, subtree);
+    }
+    for (var member : subtree) {
+      nAncestors.removeAll(member, oldAncestors);
+    }
+
+    if (parent != null) {
+      var newAncestors = union(ancestors.get(parent), parent);
+      for (var ancestor : newAncestors) {
+        nDescendants.addAll(ancestor, subtree);
+      }
+      for (var member : subtree) {
+        nAncestors.addAll(member, newAncestors);
+      }
+    }
+
+    return new TagClosure(nDescendants.build(), nAncestors.build());
+  }
+
+  /**
+   * Drops a tag from the closure, detaching its subtree.
+   *
+   * @param id The tag to drop.
+   *
+   * @return The updated closure.
+   */
+  TagClosure remove(int id) {
+    var detached = reparent(id, null);
+
+    var below = detached.descendants.get(id);
+    if (below.length == 0) {
+      return detached;
+    }
+
+    // whatever was below the removed tag becomes its own set of roots
+    var self = new int[]{id};
+    var nAncestors = detached.ancestors.edit();
+    for (var member : below) {
+      nAncestors.removeAll(member, self);
+    }
+
+    return new TagClosure(detached.descendants.edit().removeAll(id, below).build(), nAncestors.build());
+  }
+
+  private static int[] union(int[] sorted, int value) {
+    int idx = Arrays.binarySearch(sorted, value);
+    if (idx >= 0) return sorted;
+
+    int at = -(idx + 1);
+    var ret = new int[sorted.length + 1];
+    System.arraycopy(sorted, 0, ret, 0, at);
+    ret[at] = value;
+    System.arraycopy(sorted, at, ret, at + 1, sorted.length - at);
+
+    return ret;
+  }
+}
@@ -0,0 +1,173 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import java.util.*;
+
+/**
+ * <p>A precomputed top-K index for tag autocomplete. Every prefix up to {@code depth} characters
+ * long maps to the {@code size} best ranked tags beneath it, so the short prefixes users type first
+ * (and that have the largest subtrees) are answered with a single map lookup. Longer prefixes have
+ * small subtrees and are ranked by walking the {@link TagTree} directly.</p>
+ * <p>Instances are immutable and built from a point-in-time view of the tree. Entries are checked
+ * against the live tree on lookup so deleted tags are never served, and prefixes that held fewer
+ * than {@code size} tags at build time are walked so new tags show up before the next rebuild.</p>
+ */
+final class TagCompletions {
+  private final long generation;
+  private final int depth;
+  private final int size;
+  private final Map<String, Entry[]> top;
+
+  private TagCompletions(long generation, int depth, int size, Map<String, Entry[]> top) {
+    this.generation = generation;
+    this.depth = depth;
+    this.size = size;
+    this.top = top;
+  }
+
+  static TagCompletions empty() {
+    return new TagCompletions(0, 0, 0, Map.of());
+  }
+
+  /**
+   * Builds the index from every name in a tree.
+   *
+   * @param tree The tree to index.
+   * @param depth The longest prefix to precompute.
+   * @param size How many tags to keep per prefix.
+   *
+   * @return The built index.
+   */
+  TagCompletions rebuild(TagTree tree, int depth, int size) {
+    var heaps = new HashMap<String, PriorityQueue<Ranked>>();
+    tree.forEach((name, tags) -> {
+      for (var tag : tags) {
+        var ranked = new Ranked(name, tag);
+        for (int i = 0; i <= Math.min(depth, name.length()); i++) {
+          offer(heaps.computeIfAbsent(name.substring(0, i), k -> new PriorityQueue<>(size + 1, Ranked.ORDER.reversed())), ranked, size);
+        }
+      }
+    });
+
+    var top = new HashMap<String, Entry[]>(heaps.size() * 2);
+    for (var heap : heaps.entrySet()) {
+      top.put(heap.getKey(), sorted(heap.getValue()));
+    }
+
+    return new TagCompletions(generation + 1, depth, size, top);
+  }
+
+  /**
+   * @return A number that changes every time the index is rebuilt.
+   */
+  long generation() {
+    return generation;
+  }
+
+  /**
+   * Finds the best ranked tags whose formatted name starts with {@code prefix}.
+   *
+   * @param tree The live tree to check results against.
+   * @param prefix The formatted prefix.
+   * @param limit The most tags to return.
+   *
+   * @return The matching tags, best first.
+   */
+  List<MutableTag> complete(TagTree tree, String prefix, int limit) {
+    var stored = prefix.length() <= depth ? top.get(prefix) : null;
+    if (stored != null && stored.length >= size) {
+      var ret = new ArrayList<MutableTag>(Math.min(limit, stored.length));
+      for (var entry : stored) {
+        var live = live(tree, entry);
+        if (live != null) {
+          ret.add(live);
+          if (ret.size() >= limit) {
+            return ret;
+          }
+        }
+      }
+
+      // enough of the index was deleted that we can't fill the request, fall through to a walk
+    }
+
+    var heap = new PriorityQueue<Ranked>(limit + 1, Ranked.ORDER.reversed());
+    for (var tags : tree.startingWith(prefix)) {
+      for (var tag : tags) {
+        offer(heap, new Ranked(null, tag), limit);
+      }
+    }
+
+    var ret = new ArrayList<MutableTag>(heap.size());
+    for (var entry : sorted(heap)) {
+      ret.add(entry.tag);
+    }
+
+    return ret;
+  }
+
+  private static void offer(PriorityQueue<Ranked> heap, Ranked ranked, int limit) {
+    heap.offer(ranked);
+    if (heap.size() > limit) {
+      heap.poll();
+    }
+  }
+
+  private static Entry[] sorted(PriorityQueue<Ranked> heap) {
+    var ranked = heap.toArray(new Ranked[0]);
+    Arrays.sort(ranked, Ranked.ORDER);
+
+    var ret = new Entry[ranked.length];
+    for (int i = 0; i < ranked.length; i++) {
+      ret[i] = new Entry(ranked[i].name, ranked[i].tag);
+    }
+
+    return ret;
+  }
+
+  /**
+   * @return The tree's current copy of an indexed tag, or null if it's been deleted.
+   */
+  private static MutableTag live(TagTree tree, Entry entry) {
+    var current = tree.get(entry.name);
+    if (current != null) {
+      for (var tag : current) {
+        if (tag.id == entry.tag.id) {
+          return tag;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private static final class Entry {
+    final String name;
+    final MutableTag tag;
+
+    Entry(String name, MutableTag tag) {
+      this.name = name;
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * A tag with its usage frozen, counts keep moving while we rank and a heap can't have its
+   * ordering change underneath it.
+   */
+  private static final class Ranked {
+    static final Comparator<Ranked> ORDER = Comparator
+      .<Ranked>comparingInt(r -> -r.usage)
+      .thenComparingInt(r -> r.tag.name.length())
+      .thenComparing(r -> r.tag.name)
+      .thenComparingInt(r -> r.tag.id);
+
+    final String name;
+    final MutableTag tag;
+    final int usage;
+
+    Ranked(String name, MutableTag tag) {
+      this.name = name;
+      this.tag = tag;
+      this.usage = tag.usage.get();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import com.mtinge.yuugure.data.postgres.DBTag;
+
+/**
+ * A cache change broadcast between {@link TagManager} instances so that every node sharing a
+ * database sees the same tags without a full reload. Events carry the complete row so they can be
+ * applied idempotently. Usage counts are left out, they're reconciled on their own schedule.
+ */
+public class TagEvent {
+  public static final String CHANNEL = "tm:events";
+
+  public enum Type {
+    CREATE,
+    PARENT,
+    DELETE
+  }
+
+  /**
+   * The node that published this event. Nodes ignore their own events.
+   */
+  public String origin;
+  public Type type;
+  public int id;
+  public Integer parent;
+  public String category;
+  public String name;
+  public String assocType;
+  public Integer assocId;
+
+  public TagEvent() {
+    //
+  }
+
+  public static TagEvent of(String origin, Type type, DBTag tag) {
+    var event = new TagEvent();
+    event.origin = origin;
+    event.type = type;
+    event.id = tag.id;
+    event.parent = tag.parent;
+    event.category = tag.category;
+    event.name = tag.name;
+    event.assocType = tag.assocType;
+    event.assocId = tag.assocId;
+
+    return event;
+  }
+
+  public DBTag toDb() {
+    return new DBTag(id, parent, category, name, assocType, assocId, 0);
+  }
+}
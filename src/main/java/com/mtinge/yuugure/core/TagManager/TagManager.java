@@ -1,68 +1,357 @@
 package com.mtinge.yuugure.core.TagManager;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.node.Node;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharSequenceNodeFactory;
+import com.mtinge.IntCollections.IntList;
+import com.mtinge.IntCollections.IntSetMap;
+import com.mtinge.TagTokenizer.tokenizer.RangeTerm;
 import com.mtinge.TagTokenizer.tokenizer.TagToken;
 import com.mtinge.TagTokenizer.tokenizer.TermModifier;
 import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.core.MoshiFactory;
+import com.mtinge.yuugure.core.ThreadFactories;
 import com.mtinge.yuugure.data.postgres.DBTag;
-import lombok.Getter;
+import com.mtinge.yuugure.services.database.CommitHooks;
+import com.mtinge.yuugure.services.redis.PubSubListener;
+import com.squareup.moshi.JsonAdapter;
 import org.elasticsearch.index.query.AbstractQueryBuilder;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A tag management class that interfaces with the <code>tag</code> database table and attemtps to
- * be the source of truth on DB state. Provides tag caching based on name and RadixTree access for
- * wildcard efficiency.
+ * <p>A tag management class that interfaces with the <code>tag</code> database table and attemtps
+ * to be the source of truth on DB state. Provides tag caching based on name and RadixTree access
+ * for wildcard efficiency.</p>
+ * <p>The cache is published as a {@link TagSnapshot}. Readers never lock, writers serialize on
+ * {@link #_writeMonitor} only while mutating memory and never across a database round-trip.</p>
+ * <p>Changes are broadcast to other nodes as {@link TagEvent}s over Redis pub/sub so several nodes
+ * can share a database without reloading.</p>
  */
 public class TagManager {
   private static final Logger logger = LoggerFactory.getLogger(TagManager.class);
 
-  private final Object _monitor = new Object();
-  private ConcurrentRadixTree<LinkedList<MutableTag>> tagCache;
-  @Getter
-  private LinkedHashMap<Integer, HashSet<Integer>> assocMap;
+  /**
+   * How far behind the last high-water mark {@link #sync()} re-reads to catch rows committed by
+   * transactions that were already running during the previous sync.
+   */
+  private static final Duration SYNC_OVERLAP = Duration.ofSeconds(30);
+  /**
+   * How long <code>tag_tombstone</code> rows are kept. A node that hasn't synced for longer could
+   * have missed deletes and reloads instead.
+   */
+  private static final Duration TOMBSTONE_RETENTION = Duration.ofDays(7);
+  private final Object _writeMonitor = new Object();
+  /**
+   * Serializes local {@link #ensureAll(List, boolean, Handle)} calls creating the same names.
+   */
+  private final ReentrantLock[] _ensureStripes = new ReentrantLock[64];
+  private final String nodeId = UUID.randomUUID().toString();
+  private final JsonAdapter<TagEvent> eventAdapter = MoshiFactory.create().adapter(TagEvent.class);
+  private volatile TagSnapshot snapshot;
+  private volatile TagCompletions completions;
+  private volatile Timestamp syncedAt;
+  /**
+   * Usage changes not yet written to <code>tag.usage_count</code>, keyed by tag ID.
+   */
+  private final ConcurrentHashMap<Integer, Integer> pendingUsage = new ConcurrentHashMap<>();
+  /**
+   * Moves with every usage flush. Completions walked from the tree rank by live usage, so their
+   * order can change without the snapshot or the completion index changing.
+   */
+  private final AtomicLong usageEpoch = new AtomicLong();
 
   public TagManager() {
-    this.assocMap = new LinkedHashMap<>();
-    this.tagCache = new ConcurrentRadixTree<>(new DefaultCharSequenceNodeFactory());
+    this.snapshot = TagSnapshot.empty();
+    this.completions = TagCompletions.empty();
+    for (int i = 0; i < _ensureStripes.length; i++) {
+      _ensureStripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Subscribes to {@link TagEvent}s published by other nodes. Must be called before the
+   * {@link com.mtinge.yuugure.services.redis.Redis} service is started.
+   */
+  public void subscribe() {
+    App.redis().subscribe(TagEvent.CHANNEL, new PubSubListener() {
+      @Override
+      public void onMessage(String message) {
+        handleEvent(message);
+      }
+
+      @Override
+      public void onSubscribed() {
+        // we may have missed events while disconnected, catch up from the database.
+        if (syncedAt != null) {
+          sync();
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets the current parent-to-children associations. The returned map is immutable.
+   *
+   * @return The associations for the current snapshot.
+   */
+  public IntSetMap getAssocMap() {
+    return snapshot.assocMap;
+  }
+
+  /**
+   * Gets the version of the current cache snapshot. The version increases every time the cache is
+   * written to, which makes it suitable for cache keys and ETags.
+   *
+   * @return The current snapshot version.
+   */
+  public long getVersion() {
+    return snapshot.version;
   }
 
   /**
    * <p>Resets our RadixTree to match the Database state.</p>
-   * <p><strong>WARNING:</strong> Locks the <code>tag</code> table in
-   * <strong>ACCESS EXCLUSIVE</strong> mode.</p>
+   * <p>Reads the table from a single <strong>REPEATABLE READ</strong> transaction so the result is
+   * consistent without taking any table locks. Readers keep using the previous snapshot until the
+   * new one is swapped in.</p>
+   *
+   * @see #sync()
    */
   public void reload() {
-    synchronized (_monitor) {
+    synchronized (_writeMonitor) {
       logger.info("Reloading...");
-      var toSet = new ConcurrentRadixTree<LinkedList<MutableTag>>(new DefaultCharSequenceNodeFactory());
-      App.database().jdbi().useHandle(handle -> {
-        handle.begin();
-        // warning: Access Exclusive is a heavy table-based lock that should be used sparingly. It
-        //          is used here because our RadixTree needs to be a source of truth on the
-        //          database state.
-        handle.execute("LOCK TABLE tag IN ACCESS EXCLUSIVE MODE");
+      var toSet = new TagTree();
+      var assoc = IntSetMap.builder();
+      var parents = new HashMap<Integer, Integer>();
+      var size = new int[1];
+      var now = App.database().jdbi().inTransaction(TransactionIsolationLevel.REPEATABLE_READ, handle -> {
+        var dbNow = handle.createQuery("SELECT now()").mapTo(Timestamp.class).one();
 
         handle.createQuery("SELECT * FROM tag WHERE true")
           .mapTo(DBTag.class)
           .stream()
-          .forEach(tag -> addOrAppend(toSet, tag));
+          .forEach(tag -> {
+            if (putInTree(toSet, tag)) {
+              size[0]++;
+            }
+            if (tag.parent != null) {
+              assoc.put(tag.parent, tag.id);
+              parents.put(tag.id, tag.parent);
+            }
+          });
 
-        handle.commit();
+        return dbNow;
       });
-      this.tagCache = toSet; // only swap memory when we've completely structured the tree
+
+      // only swap memory when we've completely structured the tree
+      this.snapshot = new TagSnapshot(snapshot.version + 1, toSet, assoc.build(), TagClosure.of(parents), size[0]);
+      this.syncedAt = now;
+      rebuildCompletions();
       logger.info("Done.");
     }
   }
 
+  /**
+   * <p>Incrementally syncs our RadixTree with the Database state. Only rows whose
+   * <code>updated</code> column moved since the last sync are read and applied, falling back to
+   * {@link #reload()} if we've never loaded.</p>
+   * <p>Deletes don't leave a row in <code>tag</code>, {@link #deleteTag(TagDescriptor)} records
+   * them in <code>tag_tombstone</code> instead and we evict the IDs tombstoned since the last
+   * sync. Both reads hit an index on the timestamp, so a sync costs the changes rather than the
+   * table.</p>
+   */
+  public void sync() {
+    synchronized (_writeMonitor) {
+      if (syncedAt == null || syncedAt.toInstant().isBefore(Instant.now().minus(TOMBSTONE_RETENTION).plus(SYNC_OVERLAP))) {
+        // never loaded, or the tombstones we'd need may already be pruned
+        reload();
+        return;
+      }
+
+      // a transaction stamps rows with its start time, so a writer that started before our last sync
+      // could commit rows older than our high-water mark. re-read a window behind it to catch those.
+      var since = Timestamp.from(syncedAt.toInstant().minus(SYNC_OVERLAP));
+      this.syncedAt = App.database().jdbi().inTransaction(TransactionIsolationLevel.REPEATABLE_READ, handle -> {
+        var dbNow = handle.createQuery("SELECT now()").mapTo(Timestamp.class).one();
+
+        var changed = handle.createQuery("SELECT * FROM tag WHERE updated > :since")
+          .bind("since", since)
+          .mapTo(DBTag.class)
+          .list();
+        addOrAppend(changed);
+
+        var deleted = new IntList(0);
+        handle.createQuery("SELECT id FROM tag_tombstone WHERE deleted > :since")
+          .bind("since", since)
+          .mapTo(Integer.class)
+          .forEach(deleted::add);
+        evict(deleted);
+
+        logger.debug("Synced {} changed and {} deleted tag(s) since {}.", changed.size(), deleted.size(), since);
+        return dbNow;
+      });
+    }
+  }
+
+  /**
+   * Starts periodically flushing usage changes, see {@link #flushUsage()}, and reconciling tag
+   * usage counts, see {@link #reconcileUsage()}.
+   */
+  public void startUsageReconciler() {
+    var config = App.config().search;
+    var executor = Executors.newSingleThreadScheduledExecutor(ThreadFactories.named("TagManager-usage"));
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        flushUsage();
+      } catch (Exception e) {
+        logger.error("Failed to flush tag usage.", e);
+      }
+    }, config.usageFlushMillis, config.usageFlushMillis, TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        reconcileUsage();
+      } catch (Exception e) {
+        logger.error("Failed to reconcile tag usage.", e);
+      }
+    }, config.usageReconcileMinutes, config.usageReconcileMinutes, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Records a committed usage change. Our cached counts move immediately, the database counters
+   * with the next {@link #flushUsage()}.
+   *
+   * @param tags The tags whose usage changed.
+   * @param delta The amount to adjust each tag's usage by.
+   */
+  public void adjustUsage(Collection<DBTag> tags, int delta) {
+    var snap = snapshot;
+    for (var tag : tags) {
+      pendingUsage.merge(tag.id, delta, Integer::sum);
+      var cached = snap.tree.get(tag.id);
+      if (cached != null) {
+        cached.usage.updateAndGet(v -> Math.max(0, v + delta));
+      }
+    }
+  }
+
+  /**
+   * Writes pending usage changes to <code>tag.usage_count</code> in a single statement. Each tag
+   * row is locked once per flush rather than once per upload, and rows are updated in ID order so
+   * flushes from several nodes can't deadlock. Changes that fail to write are kept for the next
+   * flush.
+   */
+  public void flushUsage() {
+    var ids = new ArrayList<Integer>(pendingUsage.size());
+    var deltas = new ArrayList<Integer>(pendingUsage.size());
+    for (var id : new TreeSet<>(pendingUsage.keySet())) {
+      var delta = pendingUsage.remove(id);
+      if (delta != null && delta != 0) {
+        ids.add(id);
+        deltas.add(delta);
+      }
+    }
+    if (ids.isEmpty()) return;
+
+    // our cached counts already moved, completions ranked by them may have too
+    usageEpoch.incrementAndGet();
+
+    try {
+      App.database().jdbi().useHandle(handle ->
+        handle.createUpdate("""
+          UPDATE tag SET usage_count = greatest(usage_count + d.delta, 0)
+          FROM unnest(:ids, :deltas) AS d(id, delta)
+          WHERE tag.id = d.id""")
+          .bindArray("ids", Integer.class, ids)
+          .bindArray("deltas", Integer.class, deltas)
+          .execute()
+      );
+    } catch (Exception e) {
+      for (int i = 0; i < ids.size(); i++) {
+        pendingUsage.merge(ids.get(i), deltas.get(i), Integer::sum);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * <p>Recounts every tag's usage from <code>upload_tags</code>, fixes any drifted
+   * <code>usage_count</code> and refreshes our cached counts.</p>
+   * <p>Incremental updates can drift when a node dies with unflushed changes, and other nodes'
+   * updates only reach our cache here. Tags are walked in ID ranges so no single statement
+   * holds locks on the whole table, each range is counted from the <code>(tag, upload)</code>
+   * index on <code>upload_tags</code> without touching the rest of it.</p>
+   */
+  public void reconcileUsage() {
+    // pending changes are already in upload_tags, writing them after the recount would count them twice
+    flushUsage();
+
+    var batch = App.config().search.usageReconcileBatch;
+    var maxId = App.database().jdbi().withHandle(handle ->
+      handle.createQuery("SELECT coalesce(max(id), 0) FROM tag")
+        .mapTo(Integer.class)
+        .one()
+    );
+
+    var fixed = 0;
+    for (int lo = 0; lo <= maxId; lo += batch) {
+      var from = lo;
+      fixed += App.database().jdbi().inTransaction(handle -> {
+        var drifted = new int[1];
+        var snap = snapshot;
+        handle.createQuery("""
+          WITH counts AS (
+            SELECT t.id, t.name, count(ut.tag)::int AS n
+            FROM tag t LEFT JOIN upload_tags ut ON ut.tag = t.id
+            WHERE t.id >= :lo AND t.id < :hi
+            GROUP BY t.id
+          ), fixed AS (
+            UPDATE tag SET usage_count = counts.n
+            FROM counts
+            WHERE tag.id = counts.id AND tag.usage_count <> counts.n
+            RETURNING tag.id
+          )
+          SELECT counts.id, counts.name, counts.n, counts.id IN (SELECT id FROM fixed) AS drifted FROM counts""")
+          .bind("lo", from)
+          .bind("hi", from + batch)
+          .mapToMap()
+          .forEach(row -> {
+            var cached = snap.tree.get((int) (Integer) row.get("id"));
+            if (cached != null) {
+              cached.usage.set((Integer) row.get("n"));
+            }
+            if ((Boolean) row.get("drifted")) {
+              drifted[0]++;
+            }
+          });
+
+        return drifted[0];
+      });
+    }
+
+    logger.info("Reconciled tag usage, {} tag(s) had drifted.", fixed);
+
+    // usage drives completion ranking
+    rebuildCompletions();
+  }
+
+  private void rebuildCompletions() {
+    synchronized (_writeMonitor) {
+      var config = App.config().search;
+      this.completions = completions.rebuild(snapshot.tree, config.completionDepth, config.completionSize);
+    }
+  }
+
   /**
    * Create a new tag. Inserts into the database then populates the Radix tree.
    *
@@ -85,33 +374,30 @@ public class TagManager {
    * @throws IllegalArgumentException if the tag already exists.
    */
   public TagCreationResult createTag(TagDescriptor descriptor, Handle handle) {
-    synchronized (_monitor) {
-      var exists = getTag(descriptor) != null;
-      if (exists) throw new IllegalArgumentException("The requested tag name already exists");
-
-      Objects.requireNonNull(descriptor.category);
-      Objects.requireNonNull(descriptor.name);
-      if (descriptor.name.isBlank()) {
-        throw new IllegalArgumentException("Tag names cannot be blank.");
-      }
-
-      var others = getAllFromTree(descriptor.name);
-      if (others != null && !others.isEmpty()) {
-        boolean foundUserland = false;
-        if (others.stream().anyMatch(t -> !t.category.equalsIgnoreCase(TagCategory.USERLAND.name))) {
-          // Found a system tag, block creation
-          return TagCreationResult.forMessages(List.of(tagConflictRefusal(descriptor.name)));
-        }
-      }
+    var exists = getTag(descriptor) != null;
+    if (exists) throw new IllegalArgumentException("The requested tag name already exists");
 
-      var tag = handle.createQuery("INSERT INTO tag (category, name) VALUES (:category, :name) RETURNING *")
-        .bind("category", descriptor.category.getName())
-        .bind("name", descriptor.name)
-        .mapTo(DBTag.class).first();
+    Objects.requireNonNull(descriptor.category);
+    Objects.requireNonNull(descriptor.name);
+    if (descriptor.name.isBlank()) {
+      throw new IllegalArgumentException("Tag names cannot be blank.");
+    }
 
-      addOrAppend(tag);
-      return TagCreationResult.forTags(List.of(tag));
+    var others = getAllFromTree(descriptor.name);
+    if (others != null && !others.isEmpty()) {
+      if (others.stream().anyMatch(t -> !t.category.equalsIgnoreCase(TagCategory.USERLAND.name))) {
+        // Found a system tag, block creation
+        return TagCreationResult.forMessages(List.of(tagConflictRefusal(descriptor.name)));
+      }
     }
+
+    var tag = handle.createQuery("INSERT INTO tag (category, name) VALUES (:category, :name) RETURNING *")
+      .bind("category", descriptor.category.getName())
+      .bind("name", descriptor.name)
+      .mapTo(DBTag.class).first();
+
+    afterCreate(List.of(tag), handle);
+    return TagCreationResult.forTags(List.of(tag));
   }
 
   /**
@@ -136,31 +422,42 @@ public class TagManager {
    * @return The tag we ensured.
    */
   public TagCreationResult ensureTag(TagDescriptor descriptor, Handle handle) {
-    synchronized (_monitor) {
-      var existing = getTag(descriptor);
-      if (existing == null) {
-        return createTag(descriptor, handle);
-      }
-
+    var existing = getTag(descriptor);
+    if (existing != null) {
       return TagCreationResult.forTags(List.of(existing));
     }
-  }
 
-  /**
-   * Ensures all tags in a mutexed block.
-   *
-   * @param descriptors The tags to ensure.
-   * @param enforceUserlandCreation Whether or not to allow the creation of non-userland tags. If
-   *   a tag comes up that doesn't exist and doesn't have a userland category we skip its creation.
-   *
-   * @return The ensured tags.
-   */
-  public TagCreationResult ensureAll(List<TagDescriptor> descriptors, boolean enforceUserlandCreation) {
-    return App.database().jdbi().inTransaction(handle -> ensureAll(descriptors, enforceUserlandCreation, handle));
+    var others = getAllFromTree(descriptor.name);
+    if (others != null && others.stream().anyMatch(t -> !t.category.equalsIgnoreCase(TagCategory.USERLAND.name))) {
+      // Found a system tag, block creation
+      return TagCreationResult.forMessages(List.of(tagConflictRefusal(descriptor.name)));
+    }
+
+    // another thread (or node) may create the same tag between our cache check and our insert, so
+    // let the unique index arbitrate instead of holding a lock across the round-trip.
+    var tag = handle.createQuery("INSERT INTO tag (category, name) VALUES (:category, :name) ON CONFLICT DO NOTHING RETURNING *")
+      .bind("category", descriptor.category.getName())
+      .bind("name", descriptor.name)
+      .mapTo(DBTag.class)
+      .findFirst()
+      .orElseGet(() -> handle.createQuery("SELECT * FROM tag WHERE lower(category) = lower(:category) AND lower(name) = lower(:name)")
+        .bind("category", descriptor.category.getName())
+        .bind("name", descriptor.name)
+        .mapTo(DBTag.class)
+        .first()
+      );
+
+    afterCreate(List.of(tag), handle);
+    return TagCreationResult.forTags(List.of(tag));
   }
 
   /**
-   * Ensures all tags in a mutexed block.
+   * <p>Ensures all tags with one round-trip for the inserts and one for any conflicts.</p>
+   * <p>Missing tags are inserted together with <code>ON CONFLICT DO NOTHING</code>, the unique
+   * index on names serializes us against other nodes so no cluster-wide lock is needed. Rows that
+   * conflicted were created by someone else since our last sync and are read back in a single
+   * query. Locally we only hold the stripes covering the names we're creating, so uploads with
+   * disjoint tags don't wait on each other.</p>
    *
    * @param descriptors The tags to ensure.
    * @param enforceUserlandCreation Whether or not to allow the creation of non-userland tags. If
@@ -170,52 +467,126 @@ public class TagManager {
    * @return The ensured tags.
    */
   public TagCreationResult ensureAll(List<TagDescriptor> descriptors, boolean enforceUserlandCreation, Handle handle) {
-    var mtx = App.redis().getMutex("tm:ensure");
-    try {
-      mtx.acquire();
-
-      var result = new TagCreationResult(new LinkedList<>(), new LinkedList<>());
-      var created = new LinkedList<DBTag>();
-
-      for (var descriptor : descriptors) {
-        if (descriptor.category.equals(TagCategory.USERLAND)) {
-          var others = getAllFromTree(descriptor.name);
-          if (others != null && !others.isEmpty()) {
-            boolean foundUserland = false;
-            if (others.stream().anyMatch(t -> !t.category.equalsIgnoreCase(TagCategory.USERLAND.name))) {
-              // Found a system tag, block creation
-              result.addMessage(tagConflictRefusal(descriptor.name));
-              continue;
-            }
+    var result = new TagCreationResult(new LinkedList<>(), new LinkedList<>());
+
+    // resolve what we can from the cache, collect the rest for a single insert
+    var resolved = new HashMap<String, DBTag>();
+    var missing = new LinkedHashMap<String, TagDescriptor>();
+    var accepted = new LinkedList<TagDescriptor>();
+    for (var descriptor : descriptors) {
+      if (descriptor.category.equals(TagCategory.USERLAND)) {
+        var others = getAllFromTree(descriptor.name);
+        if (others != null && !others.isEmpty()) {
+          if (others.stream().anyMatch(t -> !t.category.equalsIgnoreCase(TagCategory.USERLAND.name))) {
+            // Found a system tag, block creation
+            result.addMessage(tagConflictRefusal(descriptor.name));
+            continue;
           }
         }
+      }
 
-        var existing = getTag(descriptor);
-        if (existing == null) {
-          // create the tag, ensuring userland enforcement is respected
-          if (!enforceUserlandCreation || descriptor.category.equals(TagCategory.USERLAND)) {
-            existing = handle.createQuery("INSERT INTO tag (category, name) VALUES (:category, :name) RETURNING *")
-              .bind("category", descriptor.category.name)
-              .bind("name", descriptor.name.toLowerCase().trim())
-              .mapTo(DBTag.class)
-              .first();
-            created.add(existing);
-          }
+      var key = ensureKey(descriptor.category.name, descriptor.name);
+      var existing = getTag(descriptor);
+      if (existing != null) {
+        resolved.put(key, existing);
+      } else if (!enforceUserlandCreation || descriptor.category.equals(TagCategory.USERLAND)) {
+        // create the tag, ensuring userland enforcement is respected
+        missing.putIfAbsent(key, descriptor);
+      } else {
+        continue;
+      }
+
+      accepted.add(descriptor);
+    }
+
+    if (!missing.isEmpty()) {
+      var categories = new ArrayList<String>(missing.size());
+      var names = new ArrayList<String>(missing.size());
+      for (var descriptor : missing.values()) {
+        categories.add(descriptor.category.name);
+        names.add(formatTag(descriptor.name));
+      }
+
+      var stripes = lockStripes(names);
+      try {
+        var created = handle.createQuery("INSERT INTO tag (category, name) SELECT * FROM unnest(:categories, :names) ON CONFLICT DO NOTHING RETURNING *")
+          .bindArray("categories", String.class, categories)
+          .bindArray("names", String.class, names)
+          .mapTo(DBTag.class)
+          .list();
+        for (var tag : created) {
+          resolved.put(ensureKey(tag.category, tag.name), tag);
         }
 
-        result.addTag(existing);
+        if (created.size() < missing.size()) {
+          handle.createQuery("SELECT t.* FROM tag t JOIN unnest(:categories, :names) AS d(category, name) ON lower(t.category) = lower(d.category) AND lower(t.name) = lower(d.name)")
+            .bindArray("categories", String.class, categories)
+            .bindArray("names", String.class, names)
+            .mapTo(DBTag.class)
+            .forEach(tag -> resolved.putIfAbsent(ensureKey(tag.category, tag.name), tag));
+        }
+
+        afterCreate(created, handle);
+      } finally {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+          stripes[i].unlock();
+        }
+      }
+    }
+
+    for (var descriptor : accepted) {
+      var tag = resolved.get(ensureKey(descriptor.category.name, descriptor.name));
+      if (tag != null) {
+        result.addTag(tag);
       }
+    }
+
+    return result;
+  }
+
+  /**
+   * Caches and broadcasts newly inserted tags once the transaction they were inserted in commits,
+   * so neither we nor other nodes ever hold a tag that was rolled back.
+   *
+   * @param tags The inserted tags.
+   * @param handle The handle they were inserted on.
+   */
+  private void afterCreate(List<DBTag> tags, Handle handle) {
+    if (tags.isEmpty()) return;
 
-      // ensure our new tags are in the cache. don't add/append until we're done iterating to avoid
-      // cache getting an entry when an exception is thrown
-      for (var tag : created) {
-        addOrAppend(tag);
+    CommitHooks.afterCommit(handle, () -> {
+      addOrAppend(tags);
+      for (var tag : tags) {
+        publish(TagEvent.Type.CREATE, tag);
       }
+    });
+  }
+
+  /**
+   * Locks the stripes covering every name, in stripe order so two callers can't deadlock.
+   *
+   * @param names The formatted names about to be created.
+   *
+   * @return The locks taken, in the order they were taken.
+   */
+  private ReentrantLock[] lockStripes(Collection<String> names) {
+    var indexes = new TreeSet<Integer>();
+    for (var name : names) {
+      indexes.add(Math.floorMod(name.hashCode(), _ensureStripes.length));
+    }
 
-      return result;
-    } finally {
-      mtx.release();
+    var ret = new ReentrantLock[indexes.size()];
+    int i = 0;
+    for (var index : indexes) {
+      ret[i] = _ensureStripes[index];
+      ret[i++].lock();
     }
+
+    return ret;
+  }
+
+  private String ensureKey(String category, String name) {
+    return category.toLowerCase() + ":" + formatTag(name);
   }
 
   /**
@@ -234,6 +605,60 @@ public class TagManager {
     return null;
   }
 
+  /**
+   * Resolves tag IDs, e.g. from an upload's associations, from the cache. Falls back to the
+   * database only for IDs we don't hold, which should only happen while an event from another node
+   * is in flight.
+   *
+   * @param ids The tag IDs to resolve.
+   *
+   * @return The resolved tags, in the order of {@code ids}. IDs that don't exist are skipped.
+   */
+  public List<DBTag> getTags(IntList ids) {
+    return getTags(ids, null);
+  }
+
+  /**
+   * @param ids The tag IDs to resolve.
+   * @param handle The database handle to reuse for any misses, or null to open one if needed.
+   *
+   * @return The resolved tags, in the order of {@code ids}. IDs that don't exist are skipped.
+   *
+   * @see #getTags(IntList)
+   */
+  public List<DBTag> getTags(IntList ids, Handle handle) {
+    var tree = snapshot.tree;
+    var resolved = new HashMap<Integer, DBTag>(ids.size() * 2);
+    var missing = new IntList(0);
+    ids.forEach(id -> {
+      var cached = tree.get(id);
+      if (cached != null) {
+        resolved.put(id, cached.toDb());
+      } else {
+        missing.add(id);
+      }
+    });
+
+    if (!missing.isEmpty()) {
+      var fromDb = handle != null
+        ? App.database().tags.read(missing, handle)
+        : App.database().jdbi().withHandle(h -> App.database().tags.read(missing, h));
+      for (var tag : fromDb) {
+        resolved.put(tag.id, tag);
+      }
+    }
+
+    var ret = new ArrayList<DBTag>(resolved.size());
+    ids.forEach(id -> {
+      var tag = resolved.get(id);
+      if (tag != null) {
+        ret.add(tag);
+      }
+    });
+
+    return ret;
+  }
+
   /**
    * Gets a mutable tag from our cache.
    *
@@ -242,10 +667,7 @@ public class TagManager {
    * @return The mutable tag if it exists, null otherwise.
    */
   private MutableTag getFromTree(TagDescriptor descriptor) {
-    List<MutableTag> fromCache;
-    synchronized (_monitor) {
-      fromCache = tagCache.getValueForExactKey(formatTag(descriptor.name));
-    }
+    List<MutableTag> fromCache = snapshot.tree.get(formatTag(descriptor.name));
 
     if (fromCache != null) {
       for (var tag : fromCache) {
@@ -266,9 +688,7 @@ public class TagManager {
    * @return The matching tags.
    */
   private List<MutableTag> getAllFromTree(String value) {
-    synchronized (_monitor) {
-      return tagCache.getValueForExactKey(formatTag(value));
-    }
+    return snapshot.tree.get(formatTag(value));
   }
 
   /**
@@ -279,138 +699,128 @@ public class TagManager {
    * @return Whether or not the tag was purged.
    */
   public boolean deleteTag(TagDescriptor descriptor) {
-    // This is potential over synchronization especially since we have a long-running blocking task
-    // in the DB but I need the tagCache to be the source of truth to minimize DB hits.
-    synchronized (_monitor) {
-      var existing = getTag(descriptor);
+    // The row locks taken below serialize us against other writers on the database side, so we only
+    // need the write monitor once we're ready to update the cache.
+    var existing = getTag(descriptor);
 
-      if (existing != null) {
-        var purged = App.database().jdbi().withHandle(handle -> {
-          handle.begin();
-          try {
-            var fromDb = handle.createQuery("SELECT * FROM tag WHERE id = :tid FOR UPDATE")
+    if (existing != null) {
+      var purged = App.database().jdbi().withHandle(handle -> {
+        handle.begin();
+        try {
+          var fromDb = handle.createQuery("SELECT * FROM tag WHERE id = :tid FOR UPDATE")
+            .bind("tid", existing.id)
+            .mapTo(DBTag.class)
+            .findFirst().orElse(null);
+          if (fromDb != null) {
+            handle.createQuery("SELECT 1 FROM upload_tags WHERE tag = :tid FOR UPDATE")
               .bind("tid", existing.id)
-              .mapTo(DBTag.class)
-              .findFirst().orElse(null);
-            if (fromDb != null) {
-              handle.createQuery("SELECT 1 FROM upload_tags WHERE tag = :tid FOR UPDATE")
-                .bind("tid", existing.id)
-                .execute((r, c) -> null);
-
-              handle.createUpdate("DELETE FROM upload_tags WHERE tag = :tid")
-                .bind("tid", fromDb.id)
-                .execute();
-              var tagsDeleted = handle.createUpdate("DELETE FROM tag WHERE id = :tid")
-                .bind("tid", fromDb.id)
-                .execute();
-
-              if (tagsDeleted == 0) {
-                logger.warn("No tags deleted from the table, rolling back.");
-                handle.rollback();
-                return false;
-              } else {
-                handle.commit();
-                return true;
-              }
-            } else {
-              logger.warn("Attempted to delete tag {} but it does not exist in the database.", existing.id);
+              .execute((r, c) -> null);
+
+            handle.createUpdate("DELETE FROM upload_tags WHERE tag = :tid")
+              .bind("tid", fromDb.id)
+              .execute();
+            var tagsDeleted = handle.createUpdate("DELETE FROM tag WHERE id = :tid")
+              .bind("tid", fromDb.id)
+              .execute();
+            // leave a tombstone for other nodes' syncs, and prune the ones every node has seen
+            handle.createUpdate("INSERT INTO tag_tombstone (id) VALUES (:tid) ON CONFLICT DO NOTHING")
+              .bind("tid", fromDb.id)
+              .execute();
+            handle.createUpdate("DELETE FROM tag_tombstone WHERE deleted < :cutoff")
+              .bind("cutoff", Timestamp.from(Instant.now().minus(TOMBSTONE_RETENTION)))
+              .execute();
+
+            if (tagsDeleted == 0) {
+              logger.warn("No tags deleted from the table, rolling back.");
+              handle.rollback();
               return false;
+            } else {
+              handle.commit();
+              return true;
             }
-          } catch (Exception e) {
-            logger.error("Failed to delete tag {} ({}).", existing.id, descriptor.name, e);
-            handle.rollback();
+          } else {
+            logger.warn("Attempted to delete tag {} but it does not exist in the database.", existing.id);
             return false;
           }
-        });
-
-        if (purged) {
-          tagCache.remove(formatTag(descriptor.name));
-          return true;
+        } catch (Exception e) {
+          logger.error("Failed to delete tag {} ({}).", existing.id, descriptor.name, e);
+          handle.rollback();
+          return false;
         }
-      }
+      });
 
-      return false;
+      if (purged) {
+        removeFromTree(existing);
+        publish(TagEvent.Type.DELETE, existing);
+        return true;
+      }
     }
+
+    return false;
   }
 
   /**
-   * Search the tree recursively for a prefixed/suffixed value. The location of the wildcard denotes
-   * which way we search the tree, e.g. for a suffix search we'll go depth-first post-order and
-   * compare nodes with the end of our suffix.
+   * Searches the tree for a wildcard value using whichever index answers the search's mode, so the
+   * cost is proportional to the number of matching names rather than the size of the tree.
    *
-   * @param node The current node.
+   * @param tree The tree to search.
    * @param results The current results.
    * @param search The tag search.
-   * @param path The current path.
-   */
-  @SuppressWarnings({"unchecked", "ConstantConditions"})
-  private void _search(Node node, LinkedList<MutableTag> results, TagSearch search, String path) {
-    if (node == null) return;
-
-    if (!path.isBlank() && !node.getIncomingEdge().isEmpty()) {
-      // this isn't the root node, check if we can short circuit this tree at all
-      if (search.prefix != null && search.mode != SearchMode.WRAPPED) {
-        var _p = formatTag(path.isBlank() ? node.getIncomingEdge().toString() : path);
-        if (!(_p.startsWith(search.prefix) || search.prefix.startsWith(_p))) {
-          // short circuit, this branch can't contain our values.
-          return;
+   */
+  @SuppressWarnings("ConstantConditions")
+  private void _search(TagTree tree, LinkedList<MutableTag> results, TagSearch search) {
+    switch (search.mode) {
+      case PREFIX -> {
+        for (var tags : tree.startingWith(search.prefix)) {
+          results.add(preferSystem(tags));
         }
       }
-    }
-
-    for (var outgoing : node.getOutgoingEdges()) {
-      _search(outgoing, results, search, path + node.getIncomingEdge());
-    }
-
-    if (node.getValue() == null) return;
-
-    var nSuffix = formatTag(node.getIncomingEdge().toString());
-    var nPrefix = formatTag(path.isBlank() ? nSuffix : path);
-    var nFull = path + nSuffix;
-
-    boolean appendable = false;
-    if (search.mode.equals(SearchMode.SUFFIX)) {
-      if (nSuffix.endsWith(search.suffix)) {
-        appendable = true;
-      }
-    } else if (search.mode.equals(SearchMode.PREFIX)) {
-      if (nSuffix.startsWith(search.prefix) || formatTag(path + nSuffix).startsWith(search.prefix)) {
-        appendable = true;
+      case SUFFIX -> {
+        for (var tags : tree.endingWith(search.suffix)) {
+          results.add(preferSystem(tags));
+        }
       }
-    } else if (search.mode.equals(SearchMode.MIDDLE)) {
-      if (nPrefix.startsWith(search.prefix) && nSuffix.endsWith(search.suffix)) {
-        appendable = true;
+      case MIDDLE -> {
+        var minLength = search.prefix.length() + search.suffix.length();
+        for (var tags : tree.startingWith(search.prefix)) {
+          var name = formatTag(tags.get(0).name);
+          if (name.length() >= minLength && name.endsWith(search.suffix)) {
+            results.add(preferSystem(tags));
+          }
+        }
       }
-    } else if (search.mode.equals(SearchMode.WRAPPED)) {
-      if (nFull.contains(search.prefix)) {
-        appendable = true;
+      case WRAPPED -> {
+        for (var tags : tree.containing(search.prefix)) {
+          results.add(preferSystem(tags));
+        }
       }
     }
+  }
 
-    if (appendable) {
-      var tags = (LinkedList<MutableTag>) node.getValue();
-      if (tags.size() == 1) {
-        results.add(tags.getFirst());
-      } else {
-        // attempt to prefer a system tag if it exists
-
-        var n = tags.getFirst();
-        if (n.category.equalsIgnoreCase(TagCategory.USERLAND.name)) {
-          for (MutableTag tag : tags) {
-            if (!tag.category.equalsIgnoreCase(TagCategory.USERLAND.name)) {
-              n = tag;
-              break;
-            }
-          }
+  /**
+   * Picks the tag to represent a wildcard hit on a name, preferring a system tag if one exists.
+   *
+   * @param tags The tags stored under the matched name.
+   *
+   * @return The preferred tag.
+   */
+  private MutableTag preferSystem(List<MutableTag> tags) {
+    var n = tags.get(0);
+    if (tags.size() > 1 && n.category.equalsIgnoreCase(TagCategory.USERLAND.name)) {
+      for (MutableTag tag : tags) {
+        if (!tag.category.equalsIgnoreCase(TagCategory.USERLAND.name)) {
+          n = tag;
+          break;
         }
-        results.add(n);
       }
     }
+
+    return n;
   }
 
   /**
    * Searches the tree for the given input. If there is no asterisk then this functions the same as
-   * {@link ConcurrentRadixTree#getValueForExactKey(CharSequence)}
+   * an exact lookup on the tree.
    *
    * @param search The search term. If there is an asterisk, then wildcard searching is
    *   attempted.
@@ -418,49 +828,77 @@ public class TagManager {
    * @return The {@link MutableTag}s present for the search hits.
    */
   public LinkedList<MutableTag> search(String search) {
+    return search(snapshot, search);
+  }
+
+  /**
+   * Finds the most used tags whose name starts with {@code prefix} for autocomplete.
+   *
+   * @param prefix The prefix the user has typed so far.
+   * @param limit The most tags to return, capped to the configured completion size.
+   *
+   * @return The matching tags, most used first.
+   */
+  public List<MutableTag> complete(String prefix, int limit) {
+    limit = Math.max(1, Math.min(limit, App.config().search.completionSize));
+    return completions.complete(snapshot.tree, formatTag(prefix), limit);
+  }
+
+  /**
+   * Gets a tag identifying the current completion results. Must be read before calling
+   * {@link #complete(String, int)} so a response is never labeled newer than its contents. Usage
+   * changes are part of it once flushed, until then a walked completion can be up to one flush
+   * interval out of date.
+   *
+   * @return A value suitable for an ETag.
+   */
+  public String getCompletionTag() {
+    return "tc-" + snapshot.version + "-" + completions.generation() + "-" + usageEpoch.get();
+  }
+
+  private LinkedList<MutableTag> search(TagSnapshot snap, String search) {
     if (search.isBlank()) {
       return new LinkedList<>();
     }
 
     if (search.indexOf(' ') > 0) {
-      return search(search.substring(0, search.indexOf(' ')));
+      return search(snap, search.substring(0, search.indexOf(' ')));
     }
 
     var ret = new LinkedList<MutableTag>();
+    var tagCache = snap.tree;
 
     int idx = search.lastIndexOf('*');
-    synchronized (_monitor) {
-      if (search.startsWith("*") && search.endsWith("*")) {
-        // wrapped search
-        var wrapped = formatTag(search.substring(search.indexOf('*') + 1, idx));
-        _search(tagCache.getNode(), ret, TagSearch.wrapped(wrapped), "");
-      } else if (search.endsWith("*")) {
-        // prefix search
-        _search(tagCache.getNode(), ret, TagSearch.prefix(formatTag(search.substring(0, search.length() - 1))), "");
-      } else if (search.startsWith("*")) {
-        // suffix search
-        _search(tagCache.getNode(), ret, TagSearch.suffix(formatTag(search.substring(1))), "");
-      } else if (idx != -1) {
-        // middle search
-        var prefix = formatTag(search.substring(0, idx));
-        var suffix = formatTag(search.substring(idx + 1));
-        _search(tagCache.getNode(), ret, TagSearch.middle(prefix, suffix), "");
-      } else {
-        var td = TagDescriptor.parse(search);
-        if (td != null) {
-          var fromTree = tagCache.getValueForExactKey(td.name);
-          if (fromTree != null) {
-            for (var tag : fromTree) {
-              if (tag.category.equalsIgnoreCase(td.category.name)) {
-                ret.add(tag);
-              }
+    if (search.startsWith("*") && search.endsWith("*")) {
+      // wrapped search
+      var wrapped = formatTag(search.substring(search.indexOf('*') + 1, idx));
+      _search(tagCache, ret, TagSearch.wrapped(wrapped));
+    } else if (search.endsWith("*")) {
+      // prefix search
+      _search(tagCache, ret, TagSearch.prefix(formatTag(search.substring(0, search.length() - 1))));
+    } else if (search.startsWith("*")) {
+      // suffix search
+      _search(tagCache, ret, TagSearch.suffix(formatTag(search.substring(1))));
+    } else if (idx != -1) {
+      // middle search
+      var prefix = formatTag(search.substring(0, idx));
+      var suffix = formatTag(search.substring(idx + 1));
+      _search(tagCache, ret, TagSearch.middle(prefix, suffix));
+    } else {
+      var td = TagDescriptor.parse(search);
+      if (td != null) {
+        var fromTree = tagCache.get(td.name);
+        if (fromTree != null) {
+          for (var tag : fromTree) {
+            if (tag.category.equalsIgnoreCase(td.category.name)) {
+              ret.add(tag);
             }
           }
-        } else {
-          var fromTree = tagCache.getValueForExactKey(search);
-          if (fromTree != null && !fromTree.isEmpty()) {
-            ret.addAll(fromTree);
-          }
+        }
+      } else {
+        var fromTree = tagCache.get(search);
+        if (fromTree != null && !fromTree.isEmpty()) {
+          ret.addAll(fromTree);
         }
       }
     }
@@ -487,20 +925,24 @@ public class TagManager {
       return false;
     }
 
+    if (snapshot.closure.wouldCycle(child.id, parent.id)) {
+      logger.warn("Refusing to set tag {}'s parent to {}, {} is already its descendant.", child.id, parent.id, parent.id);
+      return false;
+    }
+
     return App.database().jdbi().withHandle(handle -> {
       handle.begin();
       try {
         handle.execute("SELECT parent FROM tag WHERE id = ? FOR UPDATE", child.id);
 
-        var updated = handle.createUpdate("UPDATE tag SET parent = :pid WHERE id = :cid")
+        var updated = handle.createUpdate("UPDATE tag SET parent = :pid, updated = now() WHERE id = :cid")
           .bind("pid", parent.id)
           .bind("cid", child.id)
           .execute();
 
         if (updated > 0) {
           handle.commit();
-          child.parent = parent.id;
-          _assoc(parent.id, child.id);
+          publish(TagEvent.Type.PARENT, updateParent(child, parent.id));
           return true;
         } else {
           logger.warn("No rows updated when setting child {}'s parent to {}.", child.id, parent.id);
@@ -533,14 +975,13 @@ public class TagManager {
         try {
           handle.execute("SELECT 1 FROM tag WHERE id = ? FOR UPDATE", tag.id);
 
-          var updated = handle.createUpdate("UPDATE tag SET parent = null WHERE id = :id")
+          var updated = handle.createUpdate("UPDATE tag SET parent = null, updated = now() WHERE id = :id")
             .bind("id", tag.id)
             .execute();
 
           if (updated > 0) {
             handle.commit();
-            _disassoc(tag.parent, tag.id);
-            tag.parent = null;
+            publish(TagEvent.Type.PARENT, updateParent(tag, null));
             return true;
           } else {
             handle.rollback();
@@ -556,7 +997,7 @@ public class TagManager {
     }
   }
 
-  private void _injectAs(BoolQueryBuilder builder, MutableTag tag, TermModifier as) {
+  private void _injectAs(BoolQueryBuilder builder, TagSnapshot snap, MutableTag tag, TermModifier as) {
     /*
      * With a list of tags such as
      *   > Tag(id=1, name=glasses)
@@ -570,69 +1011,169 @@ public class TagManager {
      */
 
     AbstractQueryBuilder<?> term;
-    if (tag.parent == null) {
-      // potential parent tag, check for associations in the cache
-      if (assocMap.containsKey(tag.id)) {
-        // there are children associated with this tag, inject them
-        var query = new BoolQueryBuilder();
-        query.should(QueryBuilders.termQuery("tags", tag.id));
-        for (var assoc : assocMap.get(tag.id)) {
-          query.should(QueryBuilders.termQuery("tags", assoc));
-        }
-
-        // treat it as a wildcard result
-        term = query;
-      } else {
-        // this parent tag has no children, inject normally
-        term = QueryBuilders.termQuery("tags", tag.id);
-      }
+    var descendants = snap.closure.descendants;
+    if (descendants.containsKey(tag.id)) {
+      // there are tags below this one, inject its whole subtree (children, grandchildren, ...) and
+      // treat it as a wildcard result
+      var ids = new IntList(descendants.count(tag.id) + 1);
+      ids.add(tag.id);
+      descendants.forEach(tag.id, ids::add);
+
+      term = anyOf(ids.toArray());
     } else {
-      // this tag is a known child, inject normally
+      // this tag has no children, inject normally
       term = QueryBuilders.termQuery("tags", tag.id);
     }
 
+    _add(builder, term, as);
+  }
+
+  /**
+   * Adds a clause to {@code builder} in filter context. Results are always sorted by ID so scoring
+   * is wasted work, and filter clauses can be cached by elastic as bitsets.
+   *
+   * @param builder The query to add to.
+   * @param clause The clause to add.
+   * @param as How the clause should be matched.
+   */
+  private void _add(BoolQueryBuilder builder, AbstractQueryBuilder<?> clause, TermModifier as) {
     switch (as) {
-      case AND -> builder.must(term);
-      case NOT -> builder.mustNot(term);
-      case OR -> builder.should(term);
+      case AND -> builder.filter(clause);
+      case NOT -> builder.mustNot(clause);
+      // minimum_should_match is left at elastic's default so "~" keeps the meaning it had with
+      // must clauses: required when a group only has shoulds, optional next to a filter.
+      case OR -> builder.should(clause);
     }
   }
 
   @SuppressWarnings("ConstantConditions")
-  private void _query(BoolQueryBuilder builder, List<TagToken> tokens) {
+  private void _query(BoolQueryBuilder builder, TagSnapshot snap, List<TagToken> tokens, TagQueryResult result) {
     for (var token : tokens) {
       if (token.type.equals(TagToken.Type.GROUP)) {
-        var mapped = buildQuery(token.children);
+        var mapped = new BoolQueryBuilder();
+        _query(mapped, snap, token.children, result);
 
-        switch (token.modifier) {
-          case AND -> builder.must(mapped);
-          case NOT -> builder.mustNot(mapped);
-          case OR -> builder.should(mapped);
-        }
+        _add(builder, mapped, token.modifier);
       } else if (token.type.equals(TagToken.Type.TERM)) {
-        var tags = search(token.value.toLowerCase().trim());
+        var tags = search(snap, token.value.toLowerCase().trim());
         if (tags.size() > 1) {
           // Since we have more than one result we're assuming this was from a wildcard result.
           // We don't want our wildcard terms to be 'MUST' because we're looking for any of the
           // following tags, but we also want to respect a 'NOT' wildcard search.
 
-          // Generate a secondary bool query of 'OR' to inject
-          var wrapped = QueryBuilders.boolQuery();
-          for (var tag : tags) {
-            wrapped.should(QueryBuilders.termQuery("tags", tag.id));
-          }
-          switch (token.modifier) {
-            case NOT -> builder.mustNot(wrapped);
-            case OR -> builder.should(wrapped);
-            case AND -> builder.must(wrapped);
+          var config = App.config().search;
+          List<MutableTag> expanded = tags;
+          if (tags.size() > config.maxWildcardExpansions) {
+            expanded = topExpansions(tags, config.maxWildcardExpansions);
+            result.addMessage("\"" + token.value + "\" matched " + tags.size() + " tags, only the top " + expanded.size() + " were searched. Try a more specific search.");
           }
+
+          _add(builder, anyOf(expanded.stream().mapToInt(t -> t.id).toArray()), token.modifier);
         } else if (!tags.isEmpty()) {
-          _injectAs(builder, tags.getFirst(), token.modifier);
+          _injectAs(builder, snap, tags.getFirst(), token.modifier);
         }
+      } else if (token.type.equals(TagToken.Type.RANGE)) {
+        _add(builder, rangeOf(token.range), token.modifier);
       }
     }
   }
 
+  /**
+   * Builds a range query over the media meta indexed alongside each upload.
+   *
+   * @param range The parsed range.
+   *
+   * @return The query.
+   */
+  private AbstractQueryBuilder<?> rangeOf(RangeTerm range) {
+    var field = switch (range.field) {
+      case WIDTH -> "width";
+      case HEIGHT -> "height";
+      case DURATION -> "video_duration";
+      case FILESIZE -> "filesize";
+    };
+
+    var ret = QueryBuilders.rangeQuery(field);
+    if (range.from != null) {
+      ret.from(range.from, range.includeFrom);
+    }
+    if (range.to != null) {
+      ret.to(range.to, range.includeTo);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Builds a query matching uploads with any of the given tags.
+   *
+   * @param ids The tag IDs to match.
+   *
+   * @return The query.
+   */
+  private AbstractQueryBuilder<?> anyOf(int[] ids) {
+    if (ids.length == 1) {
+      return QueryBuilders.termQuery("tags", ids[0]);
+    }
+
+    // a single terms query is one cacheable clause, where a bool of term shoulds is scored per
+    // clause and can trip max_clause_count
+    return QueryBuilders.termsQuery("tags", ids);
+  }
+
+  /**
+   * Keeps the {@code limit} best ranked tags of a wildcard expansion. Tags are ranked by
+   * {@link Expansion#ORDER}.
+   *
+   * @param tags The full expansion.
+   * @param limit The number of tags to keep.
+   *
+   * @return The kept tags, best first.
+   */
+  private List<MutableTag> topExpansions(List<MutableTag> tags, int limit) {
+    // bounded heap with the worst kept tag on top, so we never sort the whole expansion
+    var heap = new PriorityQueue<Expansion>(limit + 1, Expansion.ORDER.reversed());
+    for (var tag : tags) {
+      heap.offer(new Expansion(tag));
+      if (heap.size() > limit) {
+        heap.poll();
+      }
+    }
+
+    var ranked = heap.toArray(new Expansion[0]);
+    Arrays.sort(ranked, Expansion.ORDER);
+
+    var ret = new ArrayList<MutableTag>(ranked.length);
+    for (var expansion : ranked) {
+      ret.add(expansion.tag);
+    }
+
+    return ret;
+  }
+
+  /**
+   * A wildcard expansion candidate with its usage read once. Usage changes concurrently, comparing
+   * the live count could rank the same pair differently between comparisons and break the heap.
+   */
+  private static final class Expansion {
+    /**
+     * The most used tags are kept first, ties go to shorter names as they're the more general tags.
+     */
+    static final Comparator<Expansion> ORDER = Comparator
+      .<Expansion>comparingInt(e -> -e.usage)
+      .thenComparingInt(e -> e.tag.name.length())
+      .thenComparing(e -> e.tag.name)
+      .thenComparingInt(e -> e.tag.id);
+
+    final MutableTag tag;
+    final int usage;
+
+    Expansion(MutableTag tag) {
+      this.tag = tag;
+      this.usage = tag.usage.get();
+    }
+  }
+
   /**
    * Returns a {@link BoolQueryBuilder} equivilent to the provided tokenized input for elastic
    * searching.
@@ -644,76 +1185,269 @@ public class TagManager {
    * @see com.mtinge.yuugure.services.elastic.Elastic#search(BoolQueryBuilder, int)
    */
   public BoolQueryBuilder buildQuery(List<TagToken> tokens) {
-    var builder = new BoolQueryBuilder();
-    _query(builder, tokens);
+    return mapQuery(tokens).query;
+  }
 
-    return builder;
+  /**
+   * Maps the provided tokenized input to a {@link BoolQueryBuilder} for elastic searching, along
+   * with any messages about how the input was interpreted, e.g. truncated wildcard expansions.
+   *
+   * @param tokens The tokens to map.
+   *
+   * @return The mapped query and its messages.
+   */
+  public TagQueryResult mapQuery(List<TagToken> tokens) {
+    // resolve the whole query against a single snapshot so concurrent writes can't split it
+    var result = new TagQueryResult(new BoolQueryBuilder(), new LinkedList<>());
+    _query(result.query, snapshot, tokens, result);
+
+    return result;
   }
 
+  /**
+   * Adds or replaces a single tag in the cache and publishes a new snapshot.
+   *
+   * @param tag The tag to cache.
+   */
   private void addOrAppend(DBTag tag) {
-    addOrAppend(this.tagCache, tag);
+    addOrAppend(List.of(tag));
   }
 
-  private void addOrAppend(ConcurrentRadixTree<LinkedList<MutableTag>> tree, DBTag tag) {
-    var name = formatTag(tag.name);
+  /**
+   * Adds or replaces the given tags in the cache and publishes a single new snapshot for all of
+   * them.
+   *
+   * @param tags The tags to cache.
+   */
+  private void addOrAppend(Collection<DBTag> tags) {
+    if (tags.isEmpty()) return;
+
+    synchronized (_writeMonitor) {
+      var snap = snapshot;
+      var tree = snap.tree.copy();
+      var assoc = snap.assocMap;
+      var closure = snap.closure;
+      var size = snap.size;
+      for (var tag : tags) {
+        var previous = tree.get(tag.id);
+        var previousParent = previous == null ? null : previous.parent;
+        if (previousParent != null && !previousParent.equals(tag.parent)) {
+          assoc = assoc.without(previousParent, tag.id);
+        }
+        if (tag.parent != null) {
+          assoc = assoc.with(tag.parent, tag.id);
+        }
+        if (!Objects.equals(previousParent, tag.parent)) {
+          if (tag.parent != null && closure.wouldCycle(tag.id, tag.parent)) {
+            logger.warn("Tag {} was given parent {} which is already its descendant, hierarchy searches will ignore it.", tag.id, tag.parent);
+          }
+          closure = closure.reparent(tag.id, tag.parent);
+        }
 
-    var list = tree.getValueForExactKey(name);
-    if (list == null) {
-      // we have to put a new list
-      list = new LinkedList<>(List.of(MutableTag.fromDb(tag)));
-      tree.put(name, list);
-    } else {
-      // mutate the existing list
-      list.add(MutableTag.fromDb(tag));
+        if (putInTree(tree, tag)) {
+          size++;
+        }
+      }
+
+      this.snapshot = snap.next(tree, assoc, closure, size);
+    }
+  }
+
+  /**
+   * Removes a tag from the cache and publishes a new snapshot.
+   *
+   * @param tag The tag to remove.
+   */
+  private void removeFromTree(DBTag tag) {
+    removeFromTree(List.of(tag.id));
+  }
+
+  /**
+   * Removes the given tags from the cache and publishes a single new snapshot for all of them.
+   *
+   * @param ids The IDs of the tags to remove.
+   *
+   * @return The number of tags that were cached and got removed.
+   */
+  private int removeFromTree(Collection<Integer> ids) {
+    synchronized (_writeMonitor) {
+      var snap = snapshot;
+      var tree = snap.tree;
+      var assoc = snap.assocMap;
+      var closure = snap.closure;
+      var removed = 0;
+      for (var id : ids) {
+        var cached = tree.get(id);
+        if (cached == null) continue;
+
+        if (removed++ == 0) {
+          tree = tree.copy();
+        }
+        if (cached.parent != null) {
+          assoc = assoc.without(cached.parent, cached.id);
+        }
+        dropFromName(tree, formatTag(cached.name), cached.id);
+        closure = closure.remove(cached.id);
+      }
+
+      if (removed > 0) {
+        this.snapshot = snap.next(tree, assoc, closure, snap.size - removed);
+      }
+
+      return removed;
     }
+  }
+
+  /**
+   * Removes the given tags from the cache if we still hold them.
+   *
+   * @param ids The IDs of deleted tags.
+   */
+  private void evict(IntList ids) {
+    var toEvict = new ArrayList<Integer>();
+    ids.forEach(toEvict::add);
 
-    if (tag.parent != null) {
-      _assoc(tag.parent, tag.id);
+    var evicted = removeFromTree(toEvict);
+    if (evicted > 0) {
+      logger.info("Evicted {} tag(s) that were deleted on another node.", evicted);
     }
   }
 
   /**
-   * Associate the child with the parent in the cache.
+   * Swaps the cached copy of {@code tag} for one pointing at {@code parent} and updates the
+   * associations to match.
    *
-   * @param parent The parent.
-   * @param child The child to add.
+   * @param tag The tag that was updated.
+   * @param parent The new parent, or null if the parent was removed.
+   *
+   * @return The updated tag, or null if it's no longer cached.
    */
-  private void _assoc(Integer parent, Integer child) {
-    assocMap.compute(parent, (k, v) -> {
-      if (v == null) {
-        v = new HashSet<>();
+  private DBTag updateParent(MutableTag tag, Integer parent) {
+    synchronized (_writeMonitor) {
+      var snap = snapshot;
+      var current = snap.tree.get(tag.id);
+      if (current == null) return null;
+
+      var assoc = snap.assocMap;
+      if (current.parent != null) {
+        assoc = assoc.without(current.parent, current.id);
+      }
+      if (parent != null) {
+        assoc = assoc.with(parent, current.id);
       }
 
-      v.add(child);
-      return v;
-    });
+      var updated = new DBTag(current.id, parent, current.category, current.name, current.assocType, current.assocId, current.usage.get());
+      var tree = snap.tree.copy();
+      putInTree(tree, updated);
+      this.snapshot = snap.next(tree, assoc, snap.closure.reparent(current.id, parent), snap.size);
+
+      return updated;
+    }
+  }
+
+  /**
+   * Broadcasts a cache change to the other nodes sharing our database. Failures are logged and
+   * swallowed, the change is already committed and the other nodes will pick it up on their next
+   * {@link #sync()}.
+   *
+   * @param type The type of change.
+   * @param tag The changed tag.
+   */
+  private void publish(TagEvent.Type type, DBTag tag) {
+    if (tag == null) return;
+
+    try {
+      App.redis().publish(TagEvent.CHANNEL, eventAdapter.toJson(TagEvent.of(nodeId, type, tag)));
+    } catch (Exception e) {
+      logger.warn("Failed to publish tag event {} for tag {}.", type, tag.id, e);
+    }
+  }
+
+  /**
+   * Applies a {@link TagEvent} published by another node to our cache.
+   *
+   * @param message The serialized event.
+   */
+  private void handleEvent(String message) {
+    TagEvent event;
+    try {
+      event = eventAdapter.fromJson(message);
+    } catch (Exception e) {
+      logger.warn("Received a malformed tag event: {}", message, e);
+      return;
+    }
+
+    if (event == null || event.type == null || nodeId.equals(event.origin)) {
+      return;
+    }
+
+    switch (event.type) {
+      case CREATE, PARENT -> addOrAppend(event.toDb());
+      case DELETE -> removeFromTree(event.toDb());
+    }
   }
 
   /**
-   * Disassociate the child from the parent in the cache.
+   * Puts a tag into the given tree, replacing any cached entry with the same id. If the tag was
+   * renamed the cached entry is moved to the new name. Stored lists are replaced rather than mutated
+   * so readers holding the old list are unaffected.
+   *
+   * @param tree The tree to write to.
+   * @param tag The tag to put.
    *
-   * @param parent The parent.
-   * @param child The child to remove.
+   * @return Whether the tag was new to the tree, as opposed to replacing a cached copy.
    */
-  private void _disassoc(Integer parent, Integer child) {
-    assocMap.compute(parent, (k, v) -> {
-      if (v != null) {
-        v.remove(child);
+  private boolean putInTree(TagTree tree, DBTag tag) {
+    var name = formatTag(tag.name);
+
+    // our count has seen every local adjustment, the row's may be stale (events don't carry one).
+    // sharing the counter keeps adjustments that land on the cached copy meanwhile.
+    var cached = tree.get(tag.id);
+    var replacement = cached == null ? MutableTag.fromDb(tag) : MutableTag.fromDb(tag, cached.usage);
+
+    var current = tree.get(name);
+    var list = new ArrayList<MutableTag>(current == null ? 1 : current.size() + 1);
+    if (current != null) {
+      for (var existing : current) {
+        if (existing.id != tag.id) {
+          list.add(existing);
+        }
+      }
+    }
+    list.add(replacement);
+    tree.put(name, Collections.unmodifiableList(list));
+
+    // a rename puts the new name first so the tag is always reachable under one of them
+    if (cached != null) {
+      var cachedName = formatTag(cached.name);
+      if (!cachedName.equals(name)) {
+        dropFromName(tree, cachedName, tag.id);
       }
+    }
 
-      return v;
-    });
+    return cached == null;
   }
 
-  @SuppressWarnings("unchecked")
-  private void _traverse(Node node, List<MutableTag> tags, String path) {
-    if (node == null) return;
-    for (var n : node.getOutgoingEdges()) {
-      _traverse(n, tags, path + n.getIncomingEdge());
+  /**
+   * Removes the tag with the given id from the list stored under {@code name}, dropping the name
+   * entirely if it was the last one.
+   */
+  private void dropFromName(TagTree tree, String name, int id) {
+    var current = tree.get(name);
+    if (current == null) return;
+
+    var remaining = new ArrayList<MutableTag>(current.size());
+    for (var existing : current) {
+      if (existing.id != id) {
+        remaining.add(existing);
+      }
     }
 
-    if (node.getValue() == null) return;
-    tags.addAll((LinkedList<MutableTag>) node.getValue());
+    if (remaining.isEmpty()) {
+      tree.remove(name);
+    } else if (remaining.size() != current.size()) {
+      tree.put(name, Collections.unmodifiableList(remaining));
+    }
   }
 
   /**
@@ -724,7 +1458,9 @@ public class TagManager {
    */
   public List<MutableTag> getTags() {
     var ret = new LinkedList<MutableTag>();
-    _traverse(this.tagCache.getNode(), ret, "");
+    for (var tags : snapshot.tree.all()) {
+      ret.addAll(tags);
+    }
 
     return ret;
   }
@@ -0,0 +1,23 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import lombok.AllArgsConstructor;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The result of mapping a tokenized search to an elastic query, along with any messages the user
+ * should see about how their search was interpreted.
+ */
+@AllArgsConstructor
+public class TagQueryResult {
+  @NotNull
+  public final BoolQueryBuilder query;
+  @NotNull
+  public final List<String> messages;
+
+  public void addMessage(String message) {
+    this.messages.add(message);
+  }
+}
@@ -0,0 +1,46 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import com.mtinge.IntCollections.IntSetMap;
+
+/**
+ * <p>A versioned, read-only view of the {@link TagManager}'s cache. Readers grab the current
+ * snapshot once and work against it without taking a lock, writers build the next version and
+ * swap it in.</p>
+ * <p>Every version owns its {@link TagTree}. Writers change a copy of the current tree and publish it
+ * together with the association map and hierarchy closure that match it, so a reader never sees a
+ * tag ahead of its associations. None of them are written once published, apart from the usage
+ * counters on the tags themselves.</p>
+ */
+final class TagSnapshot {
+  final long version;
+  final TagTree tree;
+  final IntSetMap assocMap;
+  final TagClosure closure;
+  final int size;
+
+  TagSnapshot(long version, TagTree tree, IntSetMap assocMap, TagClosure closure, int size) {
+    this.version = version;
+    this.tree = tree;
+    this.assocMap = assocMap;
+    this.closure = closure;
+    this.size = size;
+  }
+
+  static TagSnapshot empty() {
+    return new TagSnapshot(0, new TagTree(), IntSetMap.empty(), TagClosure.empty(), 0);
+  }
+
+  /**
+   * Creates the next version of this snapshot with the given tree and associations.
+   *
+   * @param tree The tree to publish, it must not be written afterwards.
+   * @param assocMap The association map to publish.
+   * @param closure The hierarchy closure matching {@code assocMap}.
+   * @param size The number of tags stored in the tree.
+   *
+   * @return The next snapshot version.
+   */
+  TagSnapshot next(TagTree tree, IntSetMap assocMap, TagClosure closure, int size) {
+    return new TagSnapshot(version + 1, tree, assocMap, closure, size);
+  }
+}
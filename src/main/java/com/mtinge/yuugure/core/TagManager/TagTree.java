@@ -0,0 +1,184 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
+import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharSequenceNodeFactory;
+import com.googlecode.concurrenttrees.radixreversed.ConcurrentReversedRadixTree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>The name-keyed storage behind a {@link TagSnapshot}. Alongside the forward radix tree used for
+ * exact and prefix lookups we keep a reversed radix tree for suffix lookups and a trigram index for
+ * infix lookups, so every wildcard mode costs time proportional to its matches instead of a walk of
+ * the whole tree. Tags are also indexed by ID so callers holding an upload's tag IDs can resolve them
+ * without a database round-trip.</p>
+ * <p>A tree is only written before it's published in a snapshot, writers work on a {@link #copy()}
+ * so readers never see a tree change ahead of the associations that go with it. Writes must be
+ * serialized by the caller.</p>
+ */
+final class TagTree {
+  private static final int GRAM = 3;
+
+  private final ConcurrentRadixTree<List<MutableTag>> forward;
+  private final ConcurrentReversedRadixTree<List<MutableTag>> reversed;
+  private final ConcurrentHashMap<String, Set<String>> trigrams;
+  private final ConcurrentHashMap<Integer, MutableTag> byId;
+
+  TagTree() {
+    this.forward = new ConcurrentRadixTree<>(new DefaultCharSequenceNodeFactory());
+    this.reversed = new ConcurrentReversedRadixTree<>(new DefaultCharSequenceNodeFactory());
+    this.trigrams = new ConcurrentHashMap<>();
+    this.byId = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Creates a tree holding the same entries. The stored lists and tags are shared, they're immutable
+   * apart from usage counters, which should follow the tag from one version to the next anyway.
+   *
+   * @return The copy.
+   */
+  TagTree copy() {
+    var ret = new TagTree();
+    forEach(ret::put);
+
+    return ret;
+  }
+
+  List<MutableTag> get(String name) {
+    return forward.getValueForExactKey(name);
+  }
+
+  MutableTag get(int id) {
+    return byId.get(id);
+  }
+
+  /**
+   * Stores the tags for a name. The list must be immutable, it is shared with readers.
+   *
+   * @param name The formatted tag name.
+   * @param tags The tags stored under this name.
+   */
+  void put(String name, List<MutableTag> tags) {
+    for (var tag : tags) {
+      byId.put(tag.id, tag);
+    }
+
+    var previous = forward.put(name, tags);
+    reversed.put(name, tags);
+
+    if (previous == null) {
+      for (var gram : grams(name)) {
+        trigrams.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(name);
+      }
+    } else {
+      // only drop IDs that still point at the replaced copy, a tag may have moved to another name
+      for (var tag : previous) {
+        if (!tags.contains(tag)) {
+          byId.remove(tag.id, tag);
+        }
+      }
+    }
+  }
+
+  void remove(String name) {
+    var previous = forward.getValueForExactKey(name);
+    if (forward.remove(name)) {
+      reversed.remove(name);
+      if (previous != null) {
+        for (var tag : previous) {
+          byId.remove(tag.id, tag);
+        }
+      }
+
+      for (var gram : grams(name)) {
+        trigrams.computeIfPresent(gram, (k, v) -> {
+          v.remove(name);
+          return v.isEmpty() ? null : v;
+        });
+      }
+    }
+  }
+
+  Iterable<List<MutableTag>> all() {
+    return forward.getValuesForKeysStartingWith("");
+  }
+
+  /**
+   * Calls {@code consumer} with every formatted name and the tags stored under it.
+   *
+   * @param consumer The consumer to call.
+   */
+  void forEach(BiConsumer<String, List<MutableTag>> consumer) {
+    for (var pair : forward.getKeyValuePairsForKeysStartingWith("")) {
+      consumer.accept(pair.getKey().toString(), pair.getValue());
+    }
+  }
+
+  Iterable<List<MutableTag>> startingWith(String prefix) {
+    return forward.getValuesForKeysStartingWith(prefix);
+  }
+
+  Iterable<List<MutableTag>> endingWith(String suffix) {
+    return reversed.getValuesForKeysEndingWith(suffix);
+  }
+
+  /**
+   * Finds every name containing {@code infix} by verifying the smallest trigram posting of the
+   * infix. Infixes shorter than a trigram can't be answered by the index and fall back to a scan of
+   * every name.
+   *
+   * @param infix The formatted infix to search for.
+   *
+   * @return The tags stored under every matching name.
+   */
+  List<List<MutableTag>> containing(String infix) {
+    var ret = new ArrayList<List<MutableTag>>();
+    if (infix.length() < GRAM) {
+      for (var pair : forward.getKeyValuePairsForKeysStartingWith("")) {
+        if (pair.getKey().toString().contains(infix)) {
+          ret.add(pair.getValue());
+        }
+      }
+
+      return ret;
+    }
+
+    // any name containing the infix contains every one of its trigrams, so the smallest posting is a
+    // complete candidate set and we only need to verify each candidate.
+    Set<String> smallest = null;
+    for (var gram : grams(infix)) {
+      var posting = trigrams.get(gram);
+      if (posting == null) {
+        return ret;
+      }
+      if (smallest == null || posting.size() < smallest.size()) {
+        smallest = posting;
+      }
+    }
+
+    for (var name : smallest) {
+      if (!name.contains(infix)) continue;
+
+      var tags = forward.getValueForExactKey(name);
+      if (tags != null) {
+        ret.add(tags);
+      }
+    }
+
+    return ret;
+  }
+
+  private static Set<String> grams(String value) {
+    var ret = new HashSet<String>();
+    for (int i = 0; i + GRAM <= value.length(); i++) {
+      ret.add(value.substring(i, i + GRAM));
+    }
+
+    return ret;
+  }
+}
@@ -0,0 +1,43 @@
+package com.mtinge.yuugure.core.adapters;
+
+import com.mtinge.IntCollections.IntList;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+
+import java.io.IOException;
+
+public class IntListAdapter extends JsonAdapter<IntList> {
+  public IntListAdapter() {
+    //
+  }
+
+  @Override
+  public IntList fromJson(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonReader.Token.NULL) {
+      return reader.nextNull();
+    }
+
+    var ret = new IntList();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      ret.add(reader.nextInt());
+    }
+    reader.endArray();
+
+    return ret;
+  }
+
+  @Override
+  public void toJson(JsonWriter writer, IntList value) throws IOException {
+    if (value == null) {
+      writer.nullValue();
+    } else {
+      writer.beginArray();
+      for (int i = 0; i < value.size(); i++) {
+        writer.value(value.get(i));
+      }
+      writer.endArray();
+    }
+  }
+}
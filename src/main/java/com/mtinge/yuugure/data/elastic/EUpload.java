@@ -1,17 +1,16 @@
 package com.mtinge.yuugure.data.elastic;
 
+import com.mtinge.IntCollections.IntList;
 import lombok.AllArgsConstructor;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.document.DocumentField;
 
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @AllArgsConstructor
 public final class EUpload {
   public final int id;
-  public final List<Integer> tags;
+  public final IntList tags;
 
   @Nullable
   public static EUpload fromFields(Map<String, DocumentField> fields) {
@@ -23,10 +22,13 @@ public final class EUpload {
     }
 
     Integer id = fields.get("id").getValue();
-    List<Integer> tags = fields.get("tags").getValues().stream()
-      .filter(o -> o instanceof Integer)
-      .map(o -> (Integer) o)
-      .collect(Collectors.toList());
+    var values = fields.get("tags").getValues();
+    var tags = new IntList(values.size());
+    for (var value : values) {
+      if (value instanceof Integer) {
+        tags.add((Integer) value);
+      }
+    }
 
     return new EUpload(id, tags);
   }
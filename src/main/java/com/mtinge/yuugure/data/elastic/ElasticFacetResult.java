@@ -0,0 +1,27 @@
+package com.mtinge.yuugure.data.elastic;
+
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+public class ElasticFacetResult {
+  /**
+   * The exact number of uploads matching the search.
+   */
+  public final long total;
+  /**
+   * The tags most often found on matching uploads, most frequent first.
+   */
+  public final List<Facet> tags;
+  /**
+   * Messages about how the search was interpreted, e.g. truncated wildcard expansions.
+   */
+  public final List<String> messages;
+
+  @AllArgsConstructor
+  public static final class Facet {
+    public final int tag;
+    public final long count;
+  }
+}
@@ -1,5 +1,6 @@
 package com.mtinge.yuugure.data.elastic;
 
+import com.mtinge.IntCollections.IntList;
 import lombok.AllArgsConstructor;
 
 import java.util.List;
@@ -8,5 +9,13 @@ import java.util.List;
 public class ElasticSearchResult {
   public final int pageCurrent;
   public final int pageMax;
-  public final List<Integer> hits;
+  public final IntList hits;
+  /**
+   * An encoded {@link SearchCursor} for the next page, null on the last page.
+   */
+  public final String next;
+  /**
+   * Messages about how the search was interpreted, e.g. truncated wildcard expansions.
+   */
+  public final List<String> messages;
 }
@@ -0,0 +1,51 @@
+package com.mtinge.yuugure.data.elastic;
+
+import lombok.AllArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * <p>Where to resume a search. Results are sorted by descending upload ID so the last ID a client
+ * saw is enough to continue with <code>search_after</code>, which costs the same on every page
+ * unlike an offset.</p>
+ * <p>The page count is computed once on the first page and carried along so later pages don't have
+ * to count every hit again. Clients should treat the encoded form as opaque.</p>
+ */
+@AllArgsConstructor
+public class SearchCursor {
+  public final int page;
+  public final int max;
+  /**
+   * The last upload ID on the previous page.
+   */
+  public final int after;
+
+  public String encode() {
+    var raw = page + "." + max + "." + after;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param encoded A cursor from {@link #encode()}.
+   *
+   * @return The decoded cursor, or null if it was malformed.
+   */
+  public static SearchCursor decode(String encoded) {
+    try {
+      var parts = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8).split("\\.");
+      if (parts.length == 3) {
+        var page = Integer.parseInt(parts[0]);
+        var max = Integer.parseInt(parts[1]);
+        var after = Integer.parseInt(parts[2]);
+        if (page > 1 && max >= page && after > 0) {
+          return new SearchCursor(page, max, after);
+        }
+      }
+    } catch (IllegalArgumentException ignored) {
+      // covers NumberFormatException
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,11 @@
+package com.mtinge.yuugure.data.http;
+
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+public class SearchFacets {
+  public final long total;
+  public final List<TagFacet> tags;
+}
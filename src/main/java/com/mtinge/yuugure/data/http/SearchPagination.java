@@ -6,4 +6,8 @@ import lombok.AllArgsConstructor;
 public class SearchPagination {
   public final int current;
   public final int max;
+  /**
+   * The cursor to request the next page with, null on the last page.
+   */
+  public final String next;
 }
@@ -0,0 +1,15 @@
+package com.mtinge.yuugure.data.http;
+
+import lombok.AllArgsConstructor;
+
+import java.util.Map;
+
+@AllArgsConstructor
+public class SimilarUploads {
+  public final BulkRenderableUpload uploads;
+  /**
+   * The Hamming distance, out of 64 bits, between each upload and the one being compared, keyed by
+   * upload ID. Lower is more similar, 0 is most likely the same image.
+   */
+  public final Map<Integer, Integer> distances;
+}
@@ -0,0 +1,17 @@
+package com.mtinge.yuugure.data.http;
+
+import com.mtinge.yuugure.core.TagManager.MutableTag;
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class TagCompletion {
+  public final int id;
+  public final Integer parent;
+  public final String category;
+  public final String name;
+  public final int usage;
+
+  public static TagCompletion fromMutable(MutableTag tag) {
+    return new TagCompletion(tag.id, tag.parent, tag.category, tag.name, tag.usage.get());
+  }
+}
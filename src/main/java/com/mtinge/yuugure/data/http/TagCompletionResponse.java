@@ -0,0 +1,11 @@
+package com.mtinge.yuugure.data.http;
+
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+public class TagCompletionResponse {
+  public final String prefix;
+  public final List<TagCompletion> tags;
+}
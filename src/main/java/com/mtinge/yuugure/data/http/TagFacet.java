@@ -0,0 +1,12 @@
+package com.mtinge.yuugure.data.http;
+
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class TagFacet {
+  public final SafeTag tag;
+  /**
+   * How many matching uploads have this tag.
+   */
+  public final long count;
+}
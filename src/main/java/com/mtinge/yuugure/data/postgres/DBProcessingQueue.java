@@ -27,9 +27,11 @@ public class DBProcessingQueue {
   public final String errorText;
   @ColumnName("finished")
   public final boolean finished;
+  @ColumnName("priority")
+  public final int priority;
 
-  @ConstructorProperties({"id", "upload", "queued_at", "dequeued", "errored", "error_text", "finished"})
-  public DBProcessingQueue(int id, int upload, Timestamp queuedAt, boolean dequeued, boolean errored, String errorText, boolean finished) {
+  @ConstructorProperties({"id", "upload", "queued_at", "dequeued", "errored", "error_text", "finished", "priority"})
+  public DBProcessingQueue(int id, int upload, Timestamp queuedAt, boolean dequeued, boolean errored, String errorText, boolean finished, int priority) {
     this.id = id;
     this.upload = upload;
     this.queuedAt = queuedAt;
@@ -37,6 +39,7 @@ public class DBProcessingQueue {
     this.errored = errored;
     this.errorText = errorText;
     this.finished = finished;
+    this.priority = priority;
   }
 
   @Override
@@ -50,13 +53,14 @@ public class DBProcessingQueue {
       && dequeued == that.dequeued
       && errored == that.errored
       && finished == that.finished
+      && priority == that.priority
       && queuedAt.toInstant().toEpochMilli() == that.queuedAt.toInstant().toEpochMilli()
       && Objects.equals(errorText, that.errorText);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, upload, queuedAt, dequeued, errored, errorText, finished);
+    return Objects.hash(id, upload, queuedAt, dequeued, errored, errorText, finished, priority);
   }
 
   public static DBProcessingQueue readFrom(BsonReader reader) {
@@ -79,6 +83,7 @@ public class DBProcessingQueue {
           }
         }
         case "finished" -> builder.finished(reader.readBoolean());
+        case "priority" -> builder.priority(reader.readInt32());
         default -> System.err.println("Unknown name in DBProcessingQueue document: " + name);
       }
     }
@@ -118,6 +123,9 @@ public class DBProcessingQueue {
     writer.writeName("finished");
     writer.writeBoolean(dbProcessingQueue.finished);
 
+    writer.writeName("priority");
+    writer.writeInt32(dbProcessingQueue.priority);
+
 
     writer.writeEndDocument();
   }
@@ -132,9 +140,10 @@ public class DBProcessingQueue {
     private boolean errored;
     private String errorText;
     private boolean finished;
+    private int priority;
 
     public DBProcessingQueue build() {
-      return new DBProcessingQueue(id, upload, queuedAt, dequeued, errored, errorText, finished);
+      return new DBProcessingQueue(id, upload, queuedAt, dequeued, errored, errorText, finished, priority);
     }
   }
 }
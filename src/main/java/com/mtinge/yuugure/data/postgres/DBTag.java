@@ -17,14 +17,17 @@ public final class DBTag {
   public final String assocType;
   @ColumnName("assoc_id")
   public final Integer assocId;
+  @ColumnName("usage_count")
+  public final int usageCount;
 
-  @ConstructorProperties({"id", "parent", "category", "name", "assoc_type", "assoc_id"})
-  public DBTag(int id, Integer parent, String category, String name, String assocType, Integer assocId) {
+  @ConstructorProperties({"id", "parent", "category", "name", "assoc_type", "assoc_id", "usage_count"})
+  public DBTag(int id, Integer parent, String category, String name, String assocType, Integer assocId, int usageCount) {
     this.id = id;
     this.parent = parent;
     this.category = category;
     this.name = name;
     this.assocType = assocType;
     this.assocId = assocId;
+    this.usageCount = usageCount;
   }
 }
@@ -0,0 +1,40 @@
+package com.mtinge.yuugure.data.postgres;
+
+/**
+ * The lanes of the <code>processing_queue</code>. Each lane is dequeued in proportion to its
+ * configured weight, so a large reprocess can't hold fresh uploads back.
+ */
+public enum QueuePriority {
+  /**
+   * Uploads a user is waiting on.
+   */
+  INTERACTIVE(0),
+  /**
+   * Existing uploads missing something a newer processor produces.
+   */
+  BACKFILL(1),
+  /**
+   * Bulk reprocessing of every upload.
+   */
+  REPROCESS(2);
+
+  private final int colVal;
+
+  QueuePriority(int colVal) {
+    this.colVal = colVal;
+  }
+
+  public int colVal() {
+    return colVal;
+  }
+
+  public static QueuePriority of(int colVal) {
+    for (var priority : values()) {
+      if (priority.colVal == colVal) {
+        return priority;
+      }
+    }
+
+    return INTERACTIVE;
+  }
+}
@@ -22,6 +22,10 @@ public class ProcessorResult {
   private String message = "";
   private MediaMeta meta;
   private List<String> tags;
+  /**
+   * The media's perceptual hash as hex, or empty if it couldn't be computed.
+   */
+  private String phash = "";
   private final ProcessableUpload dequeued;
 
   @Override
@@ -47,6 +51,7 @@ public class ProcessorResult {
         case "success" -> builder.success(reader.readBoolean());
         case "message" -> builder.message(reader.readString());
         case "meta" -> builder.meta(MediaMeta.readFrom(reader));
+        case "phash" -> builder.phash(reader.readString());
         case "dequeued" -> builder.dequeued(ProcessableUpload.readFrom(reader));
         case "tags" -> {
           var tags = new LinkedList<String>();
@@ -93,6 +98,9 @@ public class ProcessorResult {
     writer.writeName("meta");
     result.meta.writeTo(writer);
 
+    writer.writeName("phash");
+    writer.writeString(Optional.ofNullable(result.phash).orElse(""));
+
     writer.writeName("tags");
     writer.writeStartArray();
     {
@@ -114,10 +122,11 @@ public class ProcessorResult {
     private String message;
     private MediaMeta meta;
     private List<String> tags;
+    private String phash;
     private ProcessableUpload dequeued;
 
     public ProcessorResult build() {
-      return new ProcessorResult(dequeued).success(success).message(message).tags(tags).meta(meta);
+      return new ProcessorResult(dequeued).success(success).message(message).tags(tags).meta(meta).phash(phash);
     }
   }
 }
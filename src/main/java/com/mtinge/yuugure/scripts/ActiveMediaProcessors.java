@@ -1,6 +1,7 @@
 package com.mtinge.yuugure.scripts;
 
 import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 
 import java.util.LinkedList;
 
@@ -20,7 +21,7 @@ public class ActiveMediaProcessors extends RunnableScript {
     var sb = new StringBuilder();
     sb.append("Active Processors:\n");
     for (var item : active) {
-      sb.append("\t").append("ID: ").append(item.id).append(", Upload: ").append(item.upload).append("\n");
+      sb.append("\t").append("ID: ").append(item.id).append(", Upload: ").append(item.upload).append(", Lane: ").append(QueuePriority.of(item.priority)).append("\n");
     }
     sb.append("--- Total: ").append(active.size()).append(" ---");
 
@@ -0,0 +1,92 @@
+package com.mtinge.yuugure.scripts;
+
+import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
+import com.mtinge.yuugure.services.processor.PerceptualHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Computes perceptual hashes for media processed before hashing existed, from their existing base
+ * thumbnails. Media without a readable thumbnail have their uploads queued for processing in the
+ * backfill lane, which hashes them along the way.
+ */
+public class HashMedia extends RunnableScript {
+  private static final Logger logger = LoggerFactory.getLogger(HashMedia.class);
+  private static final int BATCH = 500;
+
+  public HashMedia() {
+    super("hashMedia");
+  }
+
+  @Override
+  public void run(LinkedList<String> args) {
+    HashMedia.run();
+  }
+
+  public static void run() {
+    logger.info("Hashing unhashed media...");
+
+    int lastId = 0;
+    int hashed = 0;
+    int skipped = 0;
+    int requeued = 0;
+    while (true) {
+      final int _lastId = lastId;
+      List<Object[]> batch = App.database().jdbi().withHandle(handle ->
+        handle.createQuery("SELECT id, sha256 FROM media WHERE phash = '' AND id > :last ORDER BY id LIMIT :limit")
+          .bind("last", _lastId)
+          .bind("limit", BATCH)
+          .map((rs, ctx) -> new Object[]{rs.getInt("id"), rs.getString("sha256")})
+          .list()
+      );
+      if (batch.isEmpty()) break;
+
+      var unreadable = new ArrayList<Integer>();
+      for (var row : batch) {
+        int id = (Integer) row[0];
+        lastId = id;
+
+        var thumbPath = Path.of(App.config().upload.finalDir, row[1] + ".thumb");
+        var phash = thumbPath.toFile().exists() ? PerceptualHash.of(thumbPath) : null;
+        if (phash == null) {
+          unreadable.add(id);
+          skipped++;
+          continue;
+        }
+
+        App.database().jdbi().useHandle(handle ->
+          handle.createUpdate("UPDATE media SET phash = :phash WHERE id = :id")
+            .bind("phash", phash)
+            .bind("id", id)
+            .execute()
+        );
+        App.similarity().put(id, phash, null);
+        hashed++;
+      }
+
+      if (!unreadable.isEmpty()) {
+        requeued += App.database().jdbi().withHandle(handle -> {
+          var uploads = handle.createQuery("SELECT id FROM upload WHERE media = ANY(:media)")
+            .bindArray("media", Integer.class, unreadable.toArray())
+            .mapTo(Integer.class)
+            .list();
+
+          return App.database().processors.requeue(QueuePriority.BACKFILL, uploads, handle);
+        });
+      }
+
+      logger.info("Hashed {} media so far, skipped {}.", hashed, skipped);
+    }
+
+    logger.info("Done. Hashed {} media, skipped {} without a readable thumbnail and requeued {} of their uploads.", hashed, skipped, requeued);
+    if (requeued > 0) {
+      App.mediaProcessor().wakeWorkers();
+    }
+  }
+}
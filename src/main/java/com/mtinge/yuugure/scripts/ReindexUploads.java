@@ -0,0 +1,29 @@
+package com.mtinge.yuugure.scripts;
+
+import com.mtinge.yuugure.App;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedList;
+
+public class ReindexUploads extends RunnableScript {
+  private static final Logger logger = LoggerFactory.getLogger(ReindexUploads.class);
+
+  public ReindexUploads() {
+    super("reindexUploads");
+  }
+
+  @Override
+  public void run(LinkedList<String> args) {
+    ReindexUploads.run();
+  }
+
+  public static void run() {
+    logger.info("Rebuilding the uploads index, search stays up on the current index until it's done...");
+    if (App.elastic().reindex()) {
+      logger.info("Reindex complete.");
+    } else {
+      logger.error("Reindex failed, search is still serving from the previous index.");
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.mtinge.yuugure.scripts;
 
 import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,8 +20,9 @@ public class ReprocessAllUploads extends RunnableScript {
   }
 
   public static void run() {
+    // the reprocess lane has the smallest weight, new uploads keep being processed alongside it
     var updated = App.database().jdbi().withHandle(handle ->
-      handle.createUpdate("UPDATE processing_queue SET dequeued=false, finished=false, errored = false WHERE dequeued AND (finished OR errored)").execute()
+      App.database().processors.requeue(QueuePriority.REPROCESS, null, handle)
     );
 
     if (updated != 0) {
@@ -78,7 +78,7 @@ public class ReprocessSpecificUpload extends RunnableScript {
         logger.info("Dequeued upload, starting processor...");
         var fullPath = Path.of(App.config().upload.finalDir, toProcess.media.sha256 + ".full");
         var thumbPath = Path.of(App.config().upload.finalDir, toProcess.media.sha256 + ".thumb");
-        var result = MediaProcessor.Process(toProcess, fullPath, thumbPath);
+        var result = MediaProcessor.Process(toProcess, fullPath, thumbPath, App.config().upload.thumbnails);
         final ProcessorResult _res = result;
         var handleRes = App.database().jdbi().withHandle(handle -> {
           handle.begin();
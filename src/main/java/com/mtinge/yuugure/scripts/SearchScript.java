@@ -23,7 +23,7 @@ public class SearchScript extends RunnableScript {
     try {
       System.out.println(
         MoshiFactory.create().adapter(Object.class).indent("  ").toJson(
-          App.elastic().search(query, 1)
+          App.elastic().search(query, 1, null)
         )
       );
     } catch (Throwable t) {
@@ -31,7 +31,9 @@ public class CLI implements IService {
       new ActiveMediaProcessors(),
       new AddTagsFromFilesystem(),
       new SearchScript(),
-      new DslScript()
+      new DslScript(),
+      new ReindexUploads(),
+      new HashMedia()
     );
   }
 
@@ -201,7 +203,12 @@ public class CLI implements IService {
                 var subcommand = args.removeFirst();
                 switch (subcommand.toLowerCase()) {
                   case "reload" -> {
-                    App.tagManager().reload();
+                    // tags reload [full]
+                    if (!args.isEmpty() && args.getFirst().equalsIgnoreCase("full")) {
+                      App.tagManager().reload();
+                    } else {
+                      App.tagManager().sync();
+                    }
                   }
                   case "create", "new", "put", "add" -> {
                     // tags create <category:name...>
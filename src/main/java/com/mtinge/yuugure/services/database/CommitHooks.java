@@ -0,0 +1,103 @@
+package com.mtinge.yuugure.services.database;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.config.JdbiConfig;
+import org.jdbi.v3.core.transaction.DelegatingTransactionHandler;
+import org.jdbi.v3.core.transaction.TransactionHandler;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Runs callbacks once the transaction they were registered in commits, and drops them if it
+ * rolls back. Used for side effects other nodes or services can observe, like cache events and
+ * index writes, which must never get ahead of the database.</p>
+ * <p>Callbacks are kept per handle in a {@link Pending} config, every handle gets its own copy.</p>
+ */
+public final class CommitHooks extends DelegatingTransactionHandler {
+  private static final Logger logger = LoggerFactory.getLogger(CommitHooks.class);
+
+  public CommitHooks(TransactionHandler delegate) {
+    super(delegate);
+  }
+
+  /**
+   * Runs {@code callback} after the handle's current transaction commits, or immediately if the
+   * handle isn't in a transaction.
+   *
+   * @param handle The handle the change was made on.
+   * @param callback The side effect to run.
+   */
+  public static void afterCommit(Handle handle, Runnable callback) {
+    if (handle.isInTransaction()) {
+      handle.getConfig(Pending.class).callbacks.add(callback);
+    } else {
+      callback.run();
+    }
+  }
+
+  @Override
+  public void commit(Handle handle) {
+    super.commit(handle);
+    run(handle);
+  }
+
+  @Override
+  public void rollback(Handle handle) {
+    handle.getConfig(Pending.class).callbacks.clear();
+    super.rollback(handle);
+  }
+
+  @Override
+  public <R, X extends Exception> R inTransaction(Handle handle, HandleCallback<R, X> callback) throws X {
+    try {
+      var ret = super.inTransaction(handle, callback);
+      // the delegate may commit without going through us
+      run(handle);
+      return ret;
+    } finally {
+      handle.getConfig(Pending.class).callbacks.clear();
+    }
+  }
+
+  @Override
+  public <R, X extends Exception> R inTransaction(Handle handle, TransactionIsolationLevel level, HandleCallback<R, X> callback) throws X {
+    try {
+      var ret = super.inTransaction(handle, level, callback);
+      run(handle);
+      return ret;
+    } finally {
+      handle.getConfig(Pending.class).callbacks.clear();
+    }
+  }
+
+  private static void run(Handle handle) {
+    var callbacks = handle.getConfig(Pending.class).callbacks;
+    while (!callbacks.isEmpty()) {
+      try {
+        callbacks.remove(0).run();
+      } catch (Exception e) {
+        // the transaction is already committed, one failed side effect can't undo it
+        logger.error("An after-commit callback failed.", e);
+      }
+    }
+  }
+
+  public static final class Pending implements JdbiConfig<Pending> {
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    public Pending() {
+      //
+    }
+
+    @Override
+    public Pending createCopy() {
+      // callbacks belong to the handle that registered them, never to copies
+      return new Pending();
+    }
+  }
+}
@@ -15,6 +15,7 @@ import org.jdbi.v3.core.mapper.RowMappers;
 import org.jdbi.v3.core.mapper.reflect.ConstructorMapper;
 import org.jdbi.v3.core.statement.Query;
 import org.jdbi.v3.core.statement.Update;
+import org.jdbi.v3.core.transaction.LocalTransactionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,6 +63,7 @@ public class Database implements IService {
   public void start() throws Exception {
     this.dataSource = new HikariDataSource(this.hikariConfig);
     this.jdbi = Jdbi.create(this.dataSource);
+    jdbi.setTransactionHandler(new CommitHooks(new LocalTransactionHandler()));
 
     jdbi.configure(RowMappers.class, c -> c
       .register(ConstructorMapper.factory(DBAccount.class))
@@ -83,6 +85,13 @@ public class Database implements IService {
     logger.info("Postgres started");
   }
 
+  @Override
+  public void stop() throws Exception {
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+  }
+
   public static <T> T first(Query query, RowMapper<T> mapper) {
     return query.map(mapper).first();
   }
@@ -21,7 +21,7 @@ public class MediaProps {
    */
   private String md5 = null;
   /**
-   * The PHASH of the file. Not yet implemented.
+   * The perceptual hash of the file's thumbnail as 16 hex characters.
    */
   private String phash = null;
   /**
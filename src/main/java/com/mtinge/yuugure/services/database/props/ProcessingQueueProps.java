@@ -1,5 +1,6 @@
 package com.mtinge.yuugure.services.database.props;
 
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -39,4 +40,8 @@ public class ProcessingQueueProps {
    * Whether or not this ProcessorQueue has finished. Can be false when {@link #errored} is true.
    */
   private Boolean finished = null;
+  /**
+   * The lane this item is dequeued from. New items default to {@link QueuePriority#INTERACTIVE}.
+   */
+  private QueuePriority priority = null;
 }
@@ -0,0 +1,67 @@
+package com.mtinge.yuugure.services.database.providers;
+
+import com.mtinge.yuugure.core.Config;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+/**
+ * <p>Picks which <code>processing_queue</code> lane the next dequeue comes from using smooth
+ * weighted round-robin. Every lane with work gains its weight in credit on each pick, and the lane
+ * with the most credit is picked and pays back the total. Lanes are interleaved in proportion to
+ * their weights instead of in bursts, so a lane with a small weight never waits more than a few
+ * picks.</p>
+ * <p>Lanes without work are left out and their credit reset. An idle lane can't bank credit and
+ * then drain a burst when it fills up again.</p>
+ */
+final class LaneScheduler {
+  private final int[] weights;
+  private final int[] credit;
+
+  LaneScheduler(Config.Processing config) {
+    this(new int[]{config.interactiveWeight, config.backfillWeight, config.reprocessWeight});
+  }
+
+  /**
+   * @param weights Each lane's weight, indexed by {@link QueuePriority#ordinal()}.
+   */
+  LaneScheduler(int[] weights) {
+    this.weights = new int[QueuePriority.values().length];
+    for (int i = 0; i < this.weights.length; i++) {
+      // a lane with no weight would never be picked and starve entirely
+      this.weights[i] = Math.max(1, weights[i]);
+    }
+    this.credit = new int[this.weights.length];
+  }
+
+  /**
+   * @param ready The lanes that currently have work.
+   *
+   * @return The lane to dequeue from, or null if no lane has work.
+   */
+  @Nullable
+  synchronized QueuePriority next(Set<QueuePriority> ready) {
+    QueuePriority picked = null;
+    int total = 0;
+    for (var lane : QueuePriority.values()) {
+      int i = lane.ordinal();
+      if (!ready.contains(lane)) {
+        credit[i] = 0;
+        continue;
+      }
+
+      credit[i] += weights[i];
+      total += weights[i];
+      if (picked == null || credit[i] > credit[picked.ordinal()]) {
+        picked = lane;
+      }
+    }
+
+    if (picked != null) {
+      credit[picked.ordinal()] -= total;
+    }
+
+    return picked;
+  }
+}
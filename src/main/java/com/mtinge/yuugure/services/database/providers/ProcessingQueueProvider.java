@@ -3,40 +3,100 @@ package com.mtinge.yuugure.services.database.providers;
 import com.mtinge.QueryBuilder.QueryBuilder;
 import com.mtinge.QueryBuilder.ops.For.ForType;
 import com.mtinge.QueryBuilder.ops.filter.Filter;
-import com.mtinge.QueryBuilder.ops.join.Join;
 import com.mtinge.QueryBuilder.ops.order.OrderType;
 import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.core.TagManager.TagCategory;
 import com.mtinge.yuugure.core.TagManager.TagDescriptor;
 import com.mtinge.yuugure.data.postgres.DBProcessingQueue;
-import com.mtinge.yuugure.data.postgres.DBTag;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 import com.mtinge.yuugure.data.processor.ProcessableUpload;
 import com.mtinge.yuugure.data.processor.ProcessorResult;
+import com.mtinge.yuugure.services.database.CommitHooks;
 import com.mtinge.yuugure.services.database.Database;
+import com.mtinge.yuugure.services.database.props.MediaProps;
 import com.mtinge.yuugure.services.database.props.ProcessingQueueProps;
 import com.mtinge.yuugure.services.database.results.Result;
 import org.jdbi.v3.core.Handle;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * <p>Items are split into {@link QueuePriority} lanes, and {@link LaneScheduler} shares dequeues
+ * between the lanes that have work by their configured weights.</p>
+ * <p>Within a lane items are taken in <code>fair_seq</code> order rather than by age. An owner's
+ * first pending item in a lane is sequenced at the head of the lane and each further one a step
+ * behind their last, so owners take turns and a bulk uploader only delays their own uploads.</p>
+ */
 public class ProcessingQueueProvider extends Provider<DBProcessingQueue, ProcessingQueueProps> {
   private static final Logger logger = LoggerFactory.getLogger(ProcessingQueueProvider.class);
 
+  /**
+   * The sequence a new item for <code>:upload</code> gets in the <code>:priority</code> lane: the
+   * head of the lane, or one behind the owner's last pending item if that's further back.
+   */
+  private static final String FAIR_SEQ = """
+    SELECT greatest(
+      coalesce((SELECT min(fair_seq) FROM processing_queue WHERE priority = :priority AND NOT dequeued), 0),
+      coalesce((
+        SELECT max(pq.fair_seq) + 1
+        FROM processing_queue pq
+        JOIN upload u ON u.id = pq.upload
+        WHERE pq.priority = :priority AND NOT pq.dequeued AND u.owner = (SELECT owner FROM upload WHERE id = :upload)
+      ), 0)
+    )
+    """;
+
+  /**
+   * Puts items that aren't being processed back in the <code>:priority</code> lane, sequenced per
+   * owner the same way {@link #FAIR_SEQ} does for a single item. Items that are still pending are
+   * left where they are.
+   */
+  private static final String REQUEUE = """
+    WITH lane AS (
+      SELECT coalesce(min(fair_seq), 0) AS head FROM processing_queue WHERE priority = :priority AND NOT dequeued
+    ), owners AS (
+      SELECT u.owner, max(pq.fair_seq) + 1 AS next
+      FROM processing_queue pq
+      JOIN upload u ON u.id = pq.upload
+      WHERE pq.priority = :priority AND NOT pq.dequeued
+      GROUP BY u.owner
+    ), picked AS (
+      SELECT pq.id, greatest(lane.head, coalesce(o.next, 0)) + row_number() OVER (PARTITION BY u.owner ORDER BY pq.id) - 1 AS seq
+      FROM processing_queue pq
+      JOIN upload u ON u.id = pq.upload
+      CROSS JOIN lane
+      LEFT JOIN owners o ON o.owner = u.owner
+      WHERE pq.dequeued AND (pq.finished OR pq.errored) AND (:all OR pq.upload = ANY(:uploads))
+    )
+    UPDATE processing_queue pq
+    SET dequeued = false, finished = false, errored = false, priority = :priority, fair_seq = picked.seq
+    FROM picked
+    WHERE pq.id = picked.id
+    """;
+
+  private LaneScheduler lanes;
+
   @Override
   public Result<DBProcessingQueue> create(ProcessingQueueProps props, Handle handle) {
     requireTransaction(handle);
 
+    var priority = props.priority() != null ? props.priority() : QueuePriority.INTERACTIVE;
     return Result.fromValue(
       Database.firstOrNull(
         QueryBuilder.insert("processing_queue")
-          .columns("upload")
-          .values(":upload")
+          .columns("upload", "priority", "fair_seq")
+          .values(":upload", ":priority", "(" + FAIR_SEQ + ")")
           .returning("*")
           .bind("upload", props.upload())
+          .bind("priority", priority.colVal())
           .toQuery(handle),
         DBProcessingQueue.class
       )
@@ -120,6 +180,11 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
         .bind("finished", updated.finished());
     }
 
+    if (updated.priority() != null) {
+      builder.set("priority", ":priority")
+        .bind("priority", updated.priority().colVal());
+    }
+
     return Result.fromValue(
       Database.firstOrNull(
         builder.toQuery(handle),
@@ -139,14 +204,23 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
     }
 
     try {
+      var lane = lanes().next(readyLanes(handle));
+
       // select and lock a row
-      var id = Database.firstOrNull(
+      var id = lane == null ? null : Database.firstOrNull(
         QueryBuilder.select("id")
           .from("processing_queue")
-          .where(Filter.not("dequeued"))
-          .order("queued_at", OrderType.ASC)
+          .where(
+            Filter.and(
+              Filter.not("dequeued"),
+              Filter.of("priority", ":priority")
+            )
+          )
+          .order("fair_seq", OrderType.ASC)
+          .order("id", OrderType.ASC)
           .limit(1)
           .withFor(ForType.UPDATE)
+          .bind("priority", lane.colVal())
           .toQuery(handle),
         Database.intMapper("id")
       );
@@ -177,11 +251,52 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
     }
   }
 
+  /**
+   * Puts finished or errored items back in the queue.
+   *
+   * @param priority The lane to requeue them in.
+   * @param uploads The uploads to requeue, or null to requeue every upload.
+   *
+   * @return The number of items requeued.
+   */
+  public int requeue(QueuePriority priority, @Nullable Collection<Integer> uploads, Handle handle) {
+    return handle.createUpdate(REQUEUE)
+      .bind("priority", priority.colVal())
+      .bind("all", uploads == null)
+      .bindArray("uploads", Integer.class, uploads == null ? new Object[0] : uploads.toArray())
+      .execute();
+  }
+
+  /**
+   * @return The lanes with at least one item waiting, one index probe per lane.
+   */
+  private EnumSet<QueuePriority> readyLanes(Handle handle) {
+    var ret = EnumSet.noneOf(QueuePriority.class);
+    handle.createQuery("SELECT l.priority FROM unnest(:lanes) AS l(priority) WHERE EXISTS (SELECT 1 FROM processing_queue WHERE priority = l.priority AND NOT dequeued)")
+      .bindArray("lanes", Integer.class, EnumSet.allOf(QueuePriority.class).stream().map(QueuePriority::colVal).toArray())
+      .mapTo(Integer.class)
+      .forEach(priority -> ret.add(QueuePriority.of(priority)));
+
+    return ret;
+  }
+
+  private synchronized LaneScheduler lanes() {
+    if (lanes == null) {
+      lanes = new LaneScheduler(App.config().processing);
+    }
+
+    return lanes;
+  }
+
   public Result<?> handleResult(ProcessorResult result, Handle handle) {
     requireTransaction(handle);
 
     // Update the media_meta
-    App.database().mediaMeta.upsert(result.meta(), handle);
+    var meta = App.database().mediaMeta.upsert(result.meta(), handle);
+    if (meta.isSuccess() && meta.getResource() != null) {
+      // index only once committed, the caller rolls back when tagging fails below
+      CommitHooks.afterCommit(handle, () -> App.elastic().setMetaForUpload(result.dequeued().upload.id, meta.getResource()));
+    }
 
     // Lock the processor_queue row for updates
     handle.execute("SELECT 1 FROM processing_queue WHERE id = ? FOR UPDATE", result.dequeued().queueItem.id);
@@ -198,8 +313,20 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
       .toUpdate(handle)
       .execute();
 
+    // Store the perceptual hash and flag uploads that look like media we already have
+    var tags = new LinkedList<>(result.tags());
+    var media = result.dequeued().media;
+    if (result.phash() != null && !result.phash().isBlank()) {
+      App.database().media.update(media.id, new MediaProps().phash(result.phash()), handle);
+      if (!App.similarity().similar(result.phash(), App.config().similarity.duplicateDistance, 1, media.id).isEmpty()) {
+        tags.add(TagCategory.MISC.getName() + ":possible_duplicate");
+      }
+      // other nodes hear about the hash right away, so only once media.phash is committed
+      CommitHooks.afterCommit(handle, () -> App.similarity().put(media.id, result.phash(), media.phash));
+    }
+
     // Set system tags based on ProcessorResult state
-    var tds = App.tagManager().ensureAll(result.tags().stream().map(TagDescriptor::parse).collect(Collectors.toList()), false);
+    var tds = App.tagManager().ensureAll(tags.stream().map(TagDescriptor::parse).collect(Collectors.toList()), false, handle);
     if (!tds.tags.isEmpty()) {
       // We ignore if this was true/false because it'll return false if the tags are the same which
       // can happen on a reprocess.
@@ -207,15 +334,7 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
 
       // Get current tags and filter out system tags except for rating (we're overriding with
       // processor result).
-      var curTags = Database.toList(
-        QueryBuilder.select("t.*")
-          .from("upload_tags ut")
-          .join(Join.inner("tag t", "ut.tag = t.id"))
-          .where("upload", ":upload")
-          .bind("upload", result.dequeued().upload.id)
-          .toQuery(handle),
-        DBTag.class
-      ).stream()
+      var curTags = App.database().tags.readForUpload(result.dequeued().upload.id, handle).stream()
         .filter(t -> t.category.equalsIgnoreCase(TagCategory.USERLAND.getName()) || t.category.equalsIgnoreCase(TagCategory.RATING.getName()))
         .map(t -> t.id)
         .collect(Collectors.toList());
@@ -226,7 +345,7 @@ public class ProcessingQueueProvider extends Provider<DBProcessingQueue, Process
         .collect(Collectors.toList());
 
       // Set tags
-      App.elastic().setTagsForUpload(result.dequeued().upload.id, toSet);
+      CommitHooks.afterCommit(handle, () -> App.elastic().setTagsForUpload(result.dequeued().upload.id, toSet));
       return new Result<>(null, true, null);
     } else {
       var res = new Result<>(null, false, FAIL_UNKNOWN);
@@ -1,14 +1,17 @@
 package com.mtinge.yuugure.services.database.providers;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.QueryBuilder.QueryBuilder;
 import com.mtinge.QueryBuilder.ops.filter.Filter;
-import com.mtinge.QueryBuilder.ops.join.Join;
+import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.data.postgres.DBTag;
+import com.mtinge.yuugure.services.database.CommitHooks;
 import com.mtinge.yuugure.services.database.Database;
 import com.mtinge.yuugure.services.database.props.TagProps;
 import com.mtinge.yuugure.services.database.results.Result;
 import org.jdbi.v3.core.Handle;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static java.util.Objects.requireNonNull;
@@ -45,32 +48,47 @@ public class TagProvider extends Provider<DBTag, TagProps> {
     );
   }
 
-  public List<DBTag> read(List<Integer> ids, Handle handle) {
+  public List<DBTag> read(IntList ids, Handle handle) {
     return Database.toList(
       QueryBuilder.select("*")
         .from("tag")
-        .where(Filter.in("id", ids.stream().map(String::valueOf).toArray(String[]::new)))
+        .where(Filter.in("id", ids.stream().mapToObj(String::valueOf).toArray(String[]::new)))
         .toQuery(handle),
       DBTag.class
     );
   }
 
+  public IntList readIdsForUpload(int id, Handle handle) {
+    var ret = new IntList();
+    QueryBuilder.select("tag")
+      .from("upload_tags")
+      .where("upload", ":id")
+      .bind("id", id)
+      .toQuery(handle)
+      .mapTo(Integer.class)
+      .forEach(ret::add);
+
+    return ret;
+  }
+
+  /**
+   * Reads an upload's tags. Only the associations are read from the database, the tags themselves
+   * are resolved from the {@link com.mtinge.yuugure.core.TagManager.TagManager}'s cache.
+   *
+   * @param id The upload ID.
+   * @param handle The database handle to use.
+   *
+   * @return The upload's tags.
+   */
   public List<DBTag> readForUpload(int id, Handle handle) {
-    return Database.toList(
-      QueryBuilder.select("t.*")
-        .from("upload_tags ut")
-        .join(Join.inner("tag t", "t.id = ut.tag"))
-        .where("ut.upload", ":id")
-        .bind("id", id)
-        .toQuery(handle),
-      DBTag.class
-    );
+    return App.tagManager().getTags(readIdsForUpload(id, handle), handle);
   }
 
 
   @Override
   public Result<DBTag> update(int id, TagProps updated, Handle handle) {
     var query = QueryBuilder.update("tag")
+      .set("updated", "now()")
       .where("id", ":id")
       .returning("*")
       .bind("id", id);
@@ -108,29 +126,45 @@ public class TagProvider extends Provider<DBTag, TagProps> {
       batch.bind("upload", id).bind("tag", tag.id).add();
     }
 
-    var counts = batch.execute();
-    for (var count : counts) {
-      if (count > 0) {
-        return true;
-      }
-    }
-
-    return false;
+    return adjustUsage(tags, batch.execute(), 1, handle);
   }
 
   public boolean removeTagsFromUpload(int id, List<DBTag> tags, Handle handle) {
     var batch = handle.prepareBatch("DELETE FROM upload_tags WHERE upload = :upload AND tag = :tag");
     for (var tag : tags) {
-      batch.bind("upload", id).bind("tag", tag.id);
+      batch.bind("upload", id).bind("tag", tag.id).add();
     }
 
-    var counts = batch.execute();
-    for (var count : counts) {
-      if (count > 0) {
-        return true;
+    return adjustUsage(tags, batch.execute(), -1, handle);
+  }
+
+  /**
+   * Moves the usage counter of every tag whose <code>upload_tags</code> row actually changed. The
+   * counters aren't written here, popular tags are on most uploads and updating their row would
+   * serialize every concurrent upload on its lock. The change is handed to the
+   * {@link com.mtinge.yuugure.core.TagManager.TagManager} once committed, which writes it with the
+   * next batch.
+   *
+   * @param tags The tags that were batched.
+   * @param counts The batch's per-tag update counts.
+   * @param delta The amount to adjust each changed tag's usage by.
+   * @param handle The handle the batch ran on.
+   *
+   * @return Whether any tag changed.
+   */
+  private boolean adjustUsage(List<DBTag> tags, int[] counts, int delta, Handle handle) {
+    var changed = new ArrayList<DBTag>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        changed.add(tags.get(i));
       }
     }
+    if (changed.isEmpty()) {
+      return false;
+    }
+
+    CommitHooks.afterCommit(handle, () -> App.tagManager().adjustUsage(changed, delta));
 
-    return false;
+    return true;
   }
 }
@@ -1,5 +1,6 @@
 package com.mtinge.yuugure.services.database.providers;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.QueryBuilder.FetchBuilder;
 import com.mtinge.QueryBuilder.QueryBuilder;
 import com.mtinge.QueryBuilder.ops.filter.Filter;
@@ -343,7 +344,7 @@ public class UploadProvider extends Provider<DBUpload, UploadProps> {
     return App.database().uploads.makeUploadsRenderable(uploads, context, handle);
   }
 
-  public BulkRenderableUpload getUploadsForSearch(List<Integer> ids, @Nullable DBAccount context, Handle handle) {
+  public BulkRenderableUpload getUploadsForSearch(IntList ids, @Nullable DBAccount context, Handle handle) {
     if (ids.isEmpty()) {
       return new BulkRenderableUpload(Map.of(), Map.of(), Map.of(), Map.of(), List.of());
     }
@@ -351,8 +352,10 @@ public class UploadProvider extends Provider<DBUpload, UploadProps> {
     var builder = QueryBuilder.select("*")
       .from("upload")
       .order("upload_date", OrderType.DESC);
-    var filter = Filter.in("id", ids.stream().map(String::valueOf).toArray(String[]::new));
+    var filter = Filter.in("id", ids.stream().mapToObj(String::valueOf).toArray(String[]::new));
 
+    // elastic already filtered these by visibility, the state checks only catch changes that haven't
+    // reached the index yet and are evaluated against rows we fetched by primary key anyway.
     long authedState = States.compute(States.Upload.DELETED, States.Upload.DMCA);
     long unauthedState = States.addFlag(authedState, States.Upload.PRIVATE);
     if (context != null) {
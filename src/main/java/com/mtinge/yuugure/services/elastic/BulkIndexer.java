@@ -0,0 +1,164 @@
+package com.mtinge.yuugure.services.elastic;
+
+import com.mtinge.yuugure.core.Config;
+import com.mtinge.yuugure.core.PrometheusMetrics;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Batches document writes into bulk requests so callers never wait on Elasticsearch. Writes are
+ * flushed once enough actions or bytes have queued up, or after a short interval, whichever comes
+ * first.</p>
+ * <p>Requests rejected by a busy cluster are retried with exponential backoff. Anything that still
+ * fails is logged and counted, the documents will be stale until they're written again.</p>
+ * <p>Writes that change search results can be flagged. A bulk carrying any of them waits for the
+ * index to refresh before it completes, then reports they're visible, so cached results are only
+ * invalidated once a new search would actually see the change.</p>
+ */
+class BulkIndexer {
+  private static final Logger logger = LoggerFactory.getLogger(BulkIndexer.class);
+
+  private final BulkProcessor processor;
+  private final Runnable onVisible;
+  private final ConcurrentHashMap<Long, Long> started = new ConcurrentHashMap<>();
+  /**
+   * Queued writes that change search results. Bulk retries resend the same request objects, so
+   * they're tracked by identity.
+   */
+  private final Set<DocWriteRequest<?>> changing = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+  BulkIndexer(RestHighLevelClient client, Config.Elasticsearch config) {
+    this(client, config, () -> {});
+  }
+
+  /**
+   * @param client The client to send bulk requests with.
+   * @param config The batching config.
+   * @param onVisible Called once writes flagged as changing search results are searchable.
+   */
+  BulkIndexer(RestHighLevelClient client, Config.Elasticsearch config, Runnable onVisible) {
+    this.onVisible = onVisible;
+    this.processor = BulkProcessor.builder((request, listener) -> {
+        if (carriesChanges(request, false)) {
+          // wait for the refresh rather than forcing one, searches see the writes once we return
+          request.setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+        }
+        client.bulkAsync(request, RequestOptions.DEFAULT, listener);
+      }, new Listener(), "yuugure-bulk")
+      .setBulkActions(config.bulkActions)
+      .setBulkSize(new ByteSizeValue(config.bulkSizeKb, ByteSizeUnit.KB))
+      .setFlushInterval(TimeValue.timeValueMillis(config.bulkFlushMillis))
+      .setConcurrentRequests(1)
+      .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), config.bulkRetries))
+      .build();
+  }
+
+  /**
+   * Queues a write. Returns immediately, the write is sent with the next bulk request.
+   *
+   * @param request The write to queue.
+   */
+  void add(DocWriteRequest<?> request) {
+    add(request, false);
+  }
+
+  /**
+   * Queues a write. Returns immediately, the write is sent with the next bulk request.
+   *
+   * @param request The write to queue.
+   * @param changesResults Whether the write changes which uploads a search matches.
+   */
+  void add(DocWriteRequest<?> request, boolean changesResults) {
+    if (changesResults) {
+      changing.add(request);
+    }
+    PrometheusMetrics.ELASTIC_BULK_QUEUED.inc();
+    processor.add(request);
+  }
+
+  /**
+   * @param request The bulk to check.
+   * @param forget Whether to stop tracking the bulk's writes.
+   *
+   * @return Whether the bulk carries a write that changes search results.
+   */
+  private boolean carriesChanges(BulkRequest request, boolean forget) {
+    boolean ret = false;
+    for (var write : request.requests()) {
+      if (forget ? changing.remove(write) : changing.contains(write)) {
+        ret = true;
+        if (!forget) break;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Flushes anything queued and waits for in-flight requests to finish.
+   *
+   * @param timeout How long to wait, in seconds.
+   *
+   * @return Whether everything was flushed before the timeout.
+   */
+  boolean close(long timeout) throws InterruptedException {
+    return processor.awaitClose(timeout, TimeUnit.SECONDS);
+  }
+
+  private final class Listener implements BulkProcessor.Listener {
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      started.put(executionId, System.nanoTime());
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      finished(executionId, request);
+      if (carriesChanges(request, true)) {
+        onVisible.run();
+      }
+      if (response.hasFailures()) {
+        for (var item : response.getItems()) {
+          if (item.isFailed()) {
+            PrometheusMetrics.ELASTIC_BULK_FAILURES.labels("item").inc();
+            logger.warn("Bulk {} failed to write document {}: {}", executionId, item.getId(), item.getFailureMessage());
+          }
+        }
+      }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      finished(executionId, request);
+      carriesChanges(request, true);
+      PrometheusMetrics.ELASTIC_BULK_FAILURES.labels("request").inc(request.numberOfActions());
+      logger.error("Bulk {} failed, {} write(s) were dropped.", executionId, request.numberOfActions(), failure);
+    }
+
+    private void finished(long executionId, BulkRequest request) {
+      PrometheusMetrics.ELASTIC_BULK_QUEUED.dec(request.numberOfActions());
+
+      var start = started.remove(executionId);
+      if (start != null) {
+        PrometheusMetrics.ELASTIC_BULK_FLUSH_SECONDS.observe((System.nanoTime() - start) / 1e9);
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.mtinge.yuugure.services.elastic;
+
+import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.core.Config;
+import com.mtinge.yuugure.core.PrometheusMetrics;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <p>Finds and repairs upload documents that drifted from the database. Uploads and their tags are
+ * written to Postgres and Elastic separately, so a write that never reached the index otherwise
+ * goes unnoticed until someone searches for it.</p>
+ * <p>Uploads are walked in ID ranges. Each range's rows are compared against the indexed documents
+ * fetched with a single multi-get. A document that differs could just have a write in flight, so
+ * mismatches are checked a second time after the bulk indexer has had a chance to flush, and only
+ * those that still differ are rewritten from the database.</p>
+ * <p>The walk pauses between ranges and backs off entirely while the bulk indexer has a backlog so
+ * it never competes with live writes. After every range the caller gets to renew whatever keeps
+ * other nodes from running the same pass, the walk stops if it can't.</p>
+ */
+final class DriftReconciler {
+  private static final Logger logger = LoggerFactory.getLogger(DriftReconciler.class);
+
+  private final Elastic elastic;
+  private final RestHighLevelClient client;
+  private final Config.Elasticsearch config;
+
+  DriftReconciler(Elastic elastic, RestHighLevelClient client, Config.Elasticsearch config) {
+    this.elastic = elastic;
+    this.client = client;
+    this.config = config;
+  }
+
+  /**
+   * Runs a full pass over every upload.
+   *
+   * @param renew Called after every range, the pass stops early if it returns false.
+   *
+   * @return The number of documents that were repaired.
+   */
+  int run(BooleanSupplier renew) throws IOException, InterruptedException {
+    var maxId = App.database().jdbi().withHandle(handle ->
+      handle.createQuery("SELECT coalesce(max(id), 0) FROM upload")
+        .mapTo(Integer.class)
+        .one()
+    );
+
+    int repaired = 0;
+    for (int lo = 0; lo <= maxId; lo += config.driftCheckBatch) {
+      throttle();
+
+      var suspects = compare(read(lo, lo + config.driftCheckBatch));
+      if (!suspects.isEmpty()) {
+        // give writes that were in flight a chance to land before we call it drift
+        Thread.sleep(config.bulkFlushMillis * 2L);
+
+        var drifted = compare(read(suspects.keySet()));
+        for (var entry : drifted.entrySet()) {
+          elastic.write(entry.getKey(), index -> new IndexRequest(index)
+            .id(String.valueOf(entry.getKey()))
+            .source(entry.getValue()));
+        }
+        repaired += drifted.size();
+      }
+
+      if (!renew.getAsBoolean()) {
+        logger.warn("Lost the drift check lock at upload {}, stopping the pass.", lo + config.driftCheckBatch);
+        break;
+      }
+
+      Thread.sleep(config.driftCheckPauseMillis);
+    }
+
+    return repaired;
+  }
+
+  /**
+   * Waits while the bulk indexer is working through a backlog.
+   */
+  private void throttle() throws InterruptedException {
+    while (PrometheusMetrics.ELASTIC_BULK_QUEUED.get() > config.bulkActions) {
+      Thread.sleep(config.bulkFlushMillis);
+    }
+  }
+
+  private Map<Integer, Map<String, Object>> read(int lo, int hi) {
+    return App.database().jdbi().withHandle(handle ->
+      collect(handle.createQuery(Reindexer.DOCUMENT_QUERY + " WHERE u.id >= :lo AND u.id < :hi")
+        .bind("lo", lo)
+        .bind("hi", hi)
+        .map((rs, ctx) -> Reindexer.document(rs))
+        .list())
+    );
+  }
+
+  private Map<Integer, Map<String, Object>> read(Collection<Integer> ids) {
+    return App.database().jdbi().withHandle(handle ->
+      collect(handle.createQuery(Reindexer.DOCUMENT_QUERY + " WHERE u.id = ANY(:ids)")
+        .bindArray("ids", Integer.class, ids.toArray())
+        .map((rs, ctx) -> Reindexer.document(rs))
+        .list())
+    );
+  }
+
+  private static Map<Integer, Map<String, Object>> collect(List<Map<String, Object>> docs) {
+    var ret = new HashMap<Integer, Map<String, Object>>(docs.size());
+    for (var doc : docs) {
+      ret.put((Integer) doc.get("id"), doc);
+    }
+
+    return ret;
+  }
+
+  /**
+   * @param expected The documents as they should be indexed, keyed by upload ID.
+   *
+   * @return The expected documents whose indexed copy is missing or differs.
+   */
+  private Map<Integer, Map<String, Object>> compare(Map<Integer, Map<String, Object>> expected) throws IOException {
+    var ret = new HashMap<Integer, Map<String, Object>>();
+    if (expected.isEmpty()) {
+      return ret;
+    }
+
+    var request = new MultiGetRequest();
+    for (var id : expected.keySet()) {
+      request.add(Elastic.IDX_UPLOADS, String.valueOf(id));
+    }
+
+    for (var item : client.mget(request, RequestOptions.DEFAULT).getResponses()) {
+      var id = Integer.parseInt(item.getId());
+      var doc = expected.get(id);
+      if (item.isFailed()) {
+        logger.warn("Failed to fetch upload {} for a drift check: {}", id, item.getFailure().getMessage());
+        continue;
+      }
+
+      var response = item.getResponse();
+      if (!response.isExists() || drifted(doc, response.getSourceAsMap())) {
+        ret.put(id, doc);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Compares the fields we index against what's stored. JSON loses the distinction between number
+   * types and arrays are compared as sets, tag order is meaningless.
+   *
+   * @param expected The document as it should be indexed.
+   * @param actual The indexed document's source.
+   *
+   * @return Whether any indexed field differs.
+   */
+  static boolean drifted(Map<String, Object> expected, Map<String, Object> actual) {
+    for (var entry : expected.entrySet()) {
+      var want = entry.getValue();
+      var have = actual.get(entry.getKey());
+
+      if (want instanceof Collection<?> && have instanceof Collection<?>) {
+        if (!numbers((Collection<?>) want).equals(numbers((Collection<?>) have))) {
+          return true;
+        }
+      } else if (want instanceof Number && have instanceof Number) {
+        if (Double.compare(((Number) want).doubleValue(), ((Number) have).doubleValue()) != 0) {
+          return true;
+        }
+      } else if (!Objects.equals(want, have)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static HashSet<Object> numbers(Collection<?> values) {
+    var ret = new HashSet<>();
+    for (var value : values) {
+      ret.add(value instanceof Number ? (Object) ((Number) value).doubleValue() : value);
+    }
+
+    return ret;
+  }
+}
@@ -1,16 +1,30 @@
 package com.mtinge.yuugure.services.elastic;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.TagTokenizer.SyntaxError;
 import com.mtinge.TagTokenizer.TagTokenizer;
+import com.mtinge.TagTokenizer.tokenizer.TagToken;
 import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.core.PrometheusMetrics;
+import com.mtinge.yuugure.core.States;
+import com.mtinge.yuugure.core.ThreadFactories;
 import com.mtinge.yuugure.data.elastic.EUpload;
+import com.mtinge.yuugure.data.elastic.ElasticFacetResult;
 import com.mtinge.yuugure.data.elastic.ElasticSearchResult;
+import com.mtinge.yuugure.data.elastic.SearchCursor;
+import com.mtinge.yuugure.data.postgres.DBAccount;
+import com.mtinge.yuugure.data.postgres.DBMediaMeta;
 import com.mtinge.yuugure.data.postgres.DBTag;
 import com.mtinge.yuugure.data.postgres.DBUpload;
 import com.mtinge.yuugure.services.IService;
+import org.apache.commons.jcs3.JCS;
+import org.apache.commons.jcs3.access.CacheAccess;
 import org.apache.http.HttpHost;
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -20,10 +34,19 @@ import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -31,17 +54,60 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Elastic implements IService {
   private static final Logger logger = LoggerFactory.getLogger(Elastic.class);
-  private static final String IDX_UPLOADS = "uploads";
+  /**
+   * The alias every read and write goes through. It points at a single versioned index,
+   * <code>uploads_vN</code>, so a rebuilt index can be swapped in atomically.
+   */
+  static final String IDX_UPLOADS = "uploads";
   public static final int PAGINATION_SIZE = 30;
+  /**
+   * Upload states that hide an upload from everyone, including its owner.
+   */
+  private static final long HIDDEN_STATE = States.compute(States.Upload.DELETED, States.Upload.DMCA);
+  /**
+   * Sets a flag on an upload's indexed state and rebuilds its <code>state_flags</code>.
+   */
+  private static final String FLAG_SCRIPT = """
+    long state = (ctx._source.state == null ? 0L : ctx._source.state) | params.flag;
+    def flags = new ArrayList();
+    for (long bit = 1L; bit != 0L && bit <= state; bit <<= 1) {
+      if ((state & bit) != 0L) flags.add(bit);
+    }
+    ctx._source.state = state;
+    ctx._source.state_flags = flags;
+    """;
 
   private RestHighLevelClient client;
+  private BulkIndexer indexer;
+  private CacheAccess<String, ElasticSearchResult> resultCache;
+  private CacheAccess<String, ElasticFacetResult> facetCache;
+  /**
+   * Moves once a new upload, or a change to an upload's tags or visibility, is searchable. Part of
+   * the cache key so uploaders see their changes straight away, other writes leave cached results
+   * to expire.
+   */
+  private final AtomicLong searchGeneration = new AtomicLong();
+  private final AtomicBoolean reindexing = new AtomicBoolean(false);
+  /**
+   * The index being rebuilt, if any. Every write is mirrored to it until it's swapped in.
+   */
+  private volatile Reindexer.Shadow shadow;
+  private ScheduledExecutorService driftExecutor;
 
   @Override
   public void init() throws Exception {
@@ -60,21 +126,31 @@ public class Elastic implements IService {
 
     // send a ping to do an initial connection attempt. on fail it will bubble a ConnectException
     client.ping(RequestOptions.DEFAULT);
+    this.indexer = new BulkIndexer(client, App.config().elastic, searchGeneration::incrementAndGet);
+    this.resultCache = JCS.getInstance("search");
+    this.facetCache = JCS.getInstance("facets");
 
-    try {
-      var indexes = client.indices().get(new GetIndexRequest(IDX_UPLOADS), RequestOptions.DEFAULT);
-    } catch (ElasticsearchStatusException e) {
-      if (e.status().equals(RestStatus.NOT_FOUND)) {
-        // need to create indexes
-        createIndexes();
-      } else {
-        throw e;
-      }
+    // matches the alias or a concrete index from before we versioned them. the latter keeps working
+    // and is replaced by the first reindex.
+    if (!client.indices().exists(new GetIndexRequest(IDX_UPLOADS), RequestOptions.DEFAULT)) {
+      logger.info("Creating indexes...");
+      var first = IDX_UPLOADS + "_v1";
+      createIndex(first, false);
+      client.indices().updateAliases(
+        new IndicesAliasesRequest().addAliasAction(AliasActions.add().index(first).alias(IDX_UPLOADS)),
+        RequestOptions.DEFAULT
+      );
     }
   }
 
   @Override
   public void stop() throws Exception {
+    if (driftExecutor != null) {
+      driftExecutor.shutdownNow();
+    }
+    if (!this.indexer.close(30)) {
+      logger.warn("Timed out flushing queued writes, some documents may be stale.");
+    }
     this.client.close();
   }
 
@@ -86,7 +162,7 @@ public class Elastic implements IService {
       if (response.isExists()) {
         var upload = EUpload.fromFields(response.getFields());
         if (upload != null && !upload.tags.isEmpty()) {
-          return App.database().jdbi().withHandle(handle -> App.database().tags.read(upload.tags, handle));
+          return App.tagManager().getTags(upload.tags);
         }
       }
     } catch (IOException ioe) {
@@ -101,80 +177,395 @@ public class Elastic implements IService {
     return new LinkedList<>();
   }
 
-  public boolean setTagsForUpload(int id, List<Integer> tags) {
-    try {
-      var request = new UpdateRequest(IDX_UPLOADS, String.valueOf(id))
-        .doc(Map.of(
-          "tags", tags
-        ));
-      var resp = client.update(request, RequestOptions.DEFAULT);
-      if (resp.status().equals(RestStatus.OK) || resp.status().equals(RestStatus.CREATED)) {
-        return true;
-      } else {
-        logger.warn("Failed to update tags for upload {}. UpdateResponse returned stats {}.", id, resp.status());
+  /**
+   * Queues a replacement of an upload's tags. Upserts so the write can't be lost if it reaches the
+   * cluster before the upload's initial index.
+   *
+   * @param id The upload to update.
+   * @param tags The upload's full set of tags.
+   */
+  public void setTagsForUpload(int id, List<Integer> tags) {
+    write(id, true, index -> new UpdateRequest(index, String.valueOf(id))
+      .doc(Map.of(
+        "tags", tags
+      ))
+      .upsert(Map.of(
+        "id", id,
+        "tags", tags
+      )));
+  }
+
+  /**
+   * Queues the initial index of an upload.
+   *
+   * @param upload The upload to index.
+   * @param tags The upload's tags.
+   */
+  public void newUpload(DBUpload upload, List<DBTag> tags) {
+    var doc = uploadFields(upload);
+    doc.put("id", upload.id);
+    doc.put("tags", tags.stream().map(t -> t.id).collect(Collectors.toList()));
+
+    write(upload.id, true, index -> new IndexRequest(index)
+      .id(String.valueOf(upload.id))
+      .source(doc));
+  }
+
+  /**
+   * Queues a refresh of an upload's indexed state, owner, and upload date. Must be called whenever
+   * any of them change or search visibility will drift from the database.
+   *
+   * @param upload The upload as it is now stored.
+   */
+  public void setStateForUpload(DBUpload upload) {
+    var doc = uploadFields(upload);
+    var upsert = new HashMap<>(doc);
+    upsert.put("id", upload.id);
+
+    write(upload.id, true, index -> new UpdateRequest(index, String.valueOf(upload.id))
+      .doc(doc)
+      .upsert(upsert));
+  }
+
+  /**
+   * Queues a refresh of the media meta indexed alongside an upload.
+   *
+   * @param id The upload to update.
+   * @param meta The meta of the upload's media.
+   */
+  public void setMetaForUpload(int id, DBMediaMeta meta) {
+    var doc = metaFields(meta);
+    var upsert = new HashMap<>(doc);
+    upsert.put("id", id);
+
+    write(id, index -> new UpdateRequest(index, String.valueOf(id))
+      .doc(doc)
+      .upsert(upsert));
+  }
+
+  /**
+   * Sets a state flag on every indexed upload owned by an account, mirroring a bulk
+   * <code>UPDATE upload SET state = (state | flag) WHERE owner = ...</code>. Runs asynchronously.
+   *
+   * @param owner The owning account.
+   * @param flag The {@link States.Upload} flag to set.
+   */
+  public void flagUploadsForOwner(int owner, long flag) {
+    var shadow = this.shadow;
+    String[] indexes;
+    if (shadow != null && shadow.live()) {
+      shadow.touchOwner(owner);
+      indexes = new String[]{IDX_UPLOADS, shadow.index};
+    } else {
+      indexes = new String[]{IDX_UPLOADS};
+    }
+
+    var request = new UpdateByQueryRequest(indexes)
+      .setQuery(QueryBuilders.termQuery("owner", owner))
+      .setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, FLAG_SCRIPT, Map.of("flag", flag)))
+      .setConflicts("proceed")
+      .setRefresh(true);
+
+    client.updateByQueryAsync(request, RequestOptions.DEFAULT, new ActionListener<>() {
+      @Override
+      public void onResponse(BulkByScrollResponse response) {
+        // refreshed before responding, the flagged uploads are already hidden from new searches
+        searchGeneration.incrementAndGet();
+        if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+          logger.error("Failed to flag some uploads for owner {}: {} bulk failures, {} search failures.", owner, response.getBulkFailures().size(), response.getSearchFailures().size());
+          PrometheusMetrics.ELASTIC_BULK_FAILURES.labels("item").inc(response.getBulkFailures().size());
+        }
       }
-    } catch (IOException ioe) {
-      logger.error("Caught IOException while setting tags for upload {}.", id, ioe);
-      PrometheusMetrics.ELASTIC_IO_ERRORS.labels("setTagsForUpload").inc();
-    } catch (ElasticsearchStatusException e) {
-      logger.error("Caught elastic exception while setting tags for upload {}.", id, e);
+
+      @Override
+      public void onFailure(Exception e) {
+        logger.error("Failed to flag uploads for owner {}.", owner, e);
+        PrometheusMetrics.ELASTIC_IO_ERRORS.labels("flagUploadsForOwner").inc();
+      }
+    });
+  }
+
+  /**
+   * Starts periodically checking indexed uploads against the database, see
+   * {@link DriftReconciler}. Every node schedules the check but only one runs it at a time, the
+   * others skip their turn while it holds the lock.
+   */
+  public void startDriftReconciler() {
+    var config = App.config().elastic;
+    driftExecutor = Executors.newSingleThreadScheduledExecutor(ThreadFactories.named("Elastic-drift"));
+    driftExecutor.scheduleWithFixedDelay(() -> {
+      if (reindexing.get()) {
+        // the rebuilt index is copied fresh from the database anyway
+        return;
+      }
+
+      var mtx = App.redis().getMutex("elastic:drift");
+      if (!mtx.tryLock()) {
+        logger.debug("Another node is checking the uploads index for drift, skipping.");
+        return;
+      }
+
+      try {
+        // a full pass can outlive the lock, it's extended after every range
+        var repaired = new DriftReconciler(this, client, config).run(mtx::extend);
+        PrometheusMetrics.ELASTIC_DRIFT_LAST.set(repaired);
+        PrometheusMetrics.ELASTIC_DRIFT_REPAIRED.inc(repaired);
+        if (repaired > 0) {
+          logger.warn("Repaired {} upload document(s) that drifted from the database.", repaired);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        logger.error("Failed to check the uploads index for drift.", e);
+        PrometheusMetrics.ELASTIC_IO_ERRORS.labels("driftReconciler").inc();
+      } finally {
+        mtx.release();
+      }
+    }, config.driftCheckMinutes, config.driftCheckMinutes, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Rebuilds the uploads index from the database and swaps it in once it's complete. Search keeps
+   * working against the current index throughout. Blocks until the rebuild is finished.
+   *
+   * @return Whether the rebuild finished, false if it failed or another rebuild was running.
+   */
+  public boolean reindex() {
+    if (!reindexing.compareAndSet(false, true)) {
+      logger.warn("A reindex is already running.");
+      return false;
+    }
+
+    try {
+      new Reindexer(this, client, App.config().elastic).run();
+      return true;
+    } catch (Exception e) {
+      logger.error("Failed to reindex uploads.", e);
+      PrometheusMetrics.ELASTIC_IO_ERRORS.labels("reindex").inc();
+    } finally {
+      reindexing.set(false);
     }
 
     return false;
   }
 
-  public boolean newUpload(DBUpload upload, List<DBTag> tags) {
-    try {
-      var doc = Map.of(
-        "id", upload.id,
-        "tags", tags.stream().map(t -> t.id).collect(Collectors.toList())
-      );
-      var request = new IndexRequest(IDX_UPLOADS)
-        .id(String.valueOf(upload.id))
-        .source(doc);
-      var resp = client.index(request, RequestOptions.DEFAULT);
-      if (resp.status().equals(RestStatus.OK) || resp.status().equals(RestStatus.CREATED)) {
-        return true;
-      } else {
-        logger.warn("Failed to update tags for upload {}. UpdateResponse returned stats {}.", upload.id, resp.status());
+  /**
+   * Queues a write to the uploads index, and to the index being rebuilt if there is one.
+   *
+   * @param id The upload being written.
+   * @param request Builds the write for a given index.
+   */
+  void write(int id, Function<String, DocWriteRequest<?>> request) {
+    write(id, false, request);
+  }
+
+  /**
+   * Queues a write to the uploads index, and to the index being rebuilt if there is one.
+   *
+   * @param id The upload being written.
+   * @param changesResults Whether the write changes which uploads a search matches, cached results
+   *   are invalidated once it's searchable.
+   * @param request Builds the write for a given index.
+   */
+  void write(int id, boolean changesResults, Function<String, DocWriteRequest<?>> request) {
+    indexer.add(request.apply(IDX_UPLOADS), changesResults);
+
+    var shadow = this.shadow;
+    if (shadow != null && shadow.live()) {
+      // record before writing so the rebuild can't copy a stale row over it
+      shadow.touch(id);
+      indexer.add(request.apply(shadow.index));
+    }
+  }
+
+  void shadow(Reindexer.Shadow shadow) {
+    this.shadow = shadow;
+  }
+
+  /**
+   * Subscribes to the index rebuilds other nodes announce, so our writes are mirrored to the new
+   * index too. Must be called before the {@link com.mtinge.yuugure.services.redis.Redis} service is
+   * started.
+   */
+  public void subscribe() {
+    App.redis().subscribe(Reindexer.SHADOW_CHANNEL, this::onShadowAnnounced);
+  }
+
+  private synchronized void onShadowAnnounced(String index) {
+    if (reindexing.get()) {
+      // our own announcement
+      return;
+    }
+
+    var current = this.shadow;
+    if (index.isBlank()) {
+      if (current != null && current.remote) {
+        this.shadow = null;
+        // the rebuilt index may have just been swapped in under our cached results
+        invalidateResults();
       }
-    } catch (IOException ioe) {
-      logger.error("Caught IOException while setting tags for upload {}.", upload.id, ioe);
-      PrometheusMetrics.ELASTIC_IO_ERRORS.labels("newUpload").inc();
-    } catch (ElasticsearchStatusException e) {
-      logger.error("Caught elastic exception while setting tags for upload {}.", upload.id, e);
+    } else if (current != null && current.index.equals(index)) {
+      current.renew();
+    } else {
+      logger.info("Another node is rebuilding the uploads index, mirroring writes to {}.", index);
+      this.shadow = Reindexer.Shadow.remote(index);
     }
+  }
 
-    return false;
+  /**
+   * Drops every cached search result and facet.
+   */
+  void invalidateResults() {
+    resultCache.clear();
+    facetCache.clear();
+  }
+
+  /**
+   * @param upload The upload to read from.
+   *
+   * @return The mutable document fields mirroring an upload's row.
+   */
+  static Map<String, Object> uploadFields(DBUpload upload) {
+    var ret = new HashMap<String, Object>();
+    ret.put("owner", upload.owner);
+    ret.put("state", upload.state);
+    ret.put("state_flags", flagsOf(upload.state));
+    ret.put("upload_date", upload.uploadDate.getTime());
+
+    return ret;
+  }
+
+  /**
+   * @param meta The meta to read from.
+   *
+   * @return The document fields mirroring a media's meta.
+   */
+  static Map<String, Object> metaFields(DBMediaMeta meta) {
+    var ret = new HashMap<String, Object>();
+    ret.put("width", meta.width);
+    ret.put("height", meta.height);
+    ret.put("video", meta.video);
+    ret.put("video_duration", meta.videoDuration);
+    ret.put("has_audio", meta.hasAudio);
+    ret.put("filesize", meta.filesize);
+
+    return ret;
+  }
+
+  /**
+   * Builds the filter hiding uploads the searcher may not see. Mirrors the state checks in
+   * {@link com.mtinge.yuugure.services.database.providers.UploadProvider#getUploadsForSearch}.
+   *
+   * @param context The searching account, if any.
+   *
+   * @return The filter.
+   */
+  private static BoolQueryBuilder visibleTo(@Nullable DBAccount context) {
+    var ret = QueryBuilders.boolQuery()
+      .mustNot(QueryBuilders.termsQuery("state_flags", flagsOf(HIDDEN_STATE)));
+
+    var isPrivate = QueryBuilders.termQuery("state_flags", States.Upload.PRIVATE);
+    if (context == null) {
+      ret.mustNot(isPrivate);
+    } else {
+      // owners can still find their own private uploads
+      ret.filter(QueryBuilders.boolQuery()
+        .should(QueryBuilders.boolQuery().mustNot(isPrivate))
+        .should(QueryBuilders.termQuery("owner", context.id))
+        .minimumShouldMatch(1));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Splits a state bitfield into its set flags. Elastic can't test bits, so we index each flag as
+   * its own value and filter with plain <code>term</code> queries.
+   *
+   * @param state The state bitfield.
+   *
+   * @return Every flag set in {@code state}.
+   */
+  private static List<Long> flagsOf(long state) {
+    var ret = new ArrayList<Long>();
+    for (long bit = 1L; bit != 0L && bit <= state; bit <<= 1) {
+      if (States.flagged(state, bit)) {
+        ret.add(bit);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Searches by offset. Only uploads visible to {@code context} are returned.
+   *
+   * @param builder The query to run.
+   * @param page The page to fetch.
+   * @param context The searching account, if any.
+   *
+   * @return The search result, or null if the search failed.
+   */
+  public ElasticSearchResult search(BoolQueryBuilder builder, int page, @Nullable DBAccount context) {
+    return search(builder, Math.max(page, 1), null, context);
   }
 
-  public ElasticSearchResult search(BoolQueryBuilder builder, int page) {
+  /**
+   * Searches from a cursor returned by a previous page. Uses <code>search_after</code> instead of
+   * an offset and skips counting hits, so deep pages cost the same as the first.
+   *
+   * @param builder The query to run.
+   * @param cursor Where to resume.
+   * @param context The searching account, if any.
+   *
+   * @return The search result, or null if the search failed.
+   */
+  public ElasticSearchResult search(BoolQueryBuilder builder, SearchCursor cursor, @Nullable DBAccount context) {
+    return search(builder, cursor.page, cursor, context);
+  }
+
+  private ElasticSearchResult search(BoolQueryBuilder builder, int page, SearchCursor cursor, @Nullable DBAccount context) {
     try {
       if (!builder.hasClauses()) {
-        return new ElasticSearchResult(1, 1, List.of());
+        return new ElasticSearchResult(1, 1, new IntList(0), null, List.of());
       }
 
-      var req = new SearchRequest(IDX_UPLOADS)
-        .source(SearchSourceBuilder.searchSource()
-          .size(PAGINATION_SIZE)
-          .from(Math.max(page - 1, 0) * PAGINATION_SIZE)
-          .sort(SortBuilders.fieldSort("id").order(SortOrder.DESC))
-          .query(builder)
-        );
-      var res = client.search(req, RequestOptions.DEFAULT);
+      // visibility is filtered here rather than after the fact in postgres so every page is full
+      // and the page count only includes uploads the searcher can see
+      var query = QueryBuilders.boolQuery()
+        .filter(builder)
+        .filter(visibleTo(context));
+      var source = SearchSourceBuilder.searchSource()
+        .size(PAGINATION_SIZE)
+        .sort(SortBuilders.fieldSort("id").order(SortOrder.DESC))
+        .trackTotalHits(cursor == null)
+        .query(query);
+      if (cursor != null) {
+        source.searchAfter(new Object[]{cursor.after});
+      } else {
+        source.from((page - 1) * PAGINATION_SIZE);
+      }
+      var res = client.search(new SearchRequest(IDX_UPLOADS).source(source), RequestOptions.DEFAULT);
 
-      var hits = new LinkedList<Integer>();
+      var hits = new IntList(res.getHits().getHits().length);
       for (var hit : res.getHits().getHits()) {
         hits.add(Integer.parseInt(hit.getId()));
       }
 
-      double totalDocs = res.getHits().getTotalHits().value;
-      if (totalDocs % PAGINATION_SIZE != 0) {
-        --totalDocs;
+      int max;
+      if (cursor != null) {
+        max = cursor.max;
+      } else {
+        var totalDocs = res.getHits().getTotalHits().value;
+        max = (int) Math.max(1, (totalDocs + PAGINATION_SIZE - 1) / PAGINATION_SIZE);
+      }
+
+      String next = null;
+      if (page < max && hits.size() == PAGINATION_SIZE) {
+        next = new SearchCursor(page + 1, max, hits.get(hits.size() - 1)).encode();
       }
-      var max = Math.max(1, Math.ceil(totalDocs / PAGINATION_SIZE));
 
-      return new ElasticSearchResult(page, (int) max, hits);
+      return new ElasticSearchResult(page, max, hits, next, List.of());
     } catch (IOException ioe) {
       logger.error("Caught IOException while searching.", ioe);
       PrometheusMetrics.ELASTIC_IO_ERRORS.labels("search").inc();
@@ -185,9 +576,40 @@ public class Elastic implements IService {
     return null;
   }
 
-  public ElasticSearchResult search(String query, int page) {
+  public ElasticSearchResult search(String query, int page, @Nullable DBAccount context) {
+    return search(query, page, null, context);
+  }
+
+  public ElasticSearchResult search(String query, SearchCursor cursor, @Nullable DBAccount context) {
+    return search(query, cursor.page, cursor, context);
+  }
+
+  private ElasticSearchResult search(String query, int page, SearchCursor cursor, @Nullable DBAccount context) {
     try {
-      return search(App.tagManager().buildQuery(TagTokenizer.parse(query)), page);
+      var tokens = TagTokenizer.parse(query);
+
+      String key = null;
+      if (page <= App.config().search.resultCachePages) {
+        key = cacheKey(tokens, context) + "|" + (cursor == null ? "p" + page : "c" + cursor.encode());
+
+        var cached = resultCache.get(key);
+        if (cached != null) {
+          PrometheusMetrics.SEARCH_CACHE_HITS.inc();
+          return cached;
+        }
+        PrometheusMetrics.SEARCH_CACHE_MISSES.inc();
+      }
+
+      var mapped = App.tagManager().mapQuery(tokens);
+      var res = cursor == null ? search(mapped.query, page, context) : search(mapped.query, cursor, context);
+      if (res != null && !mapped.messages.isEmpty()) {
+        res = new ElasticSearchResult(res.pageCurrent, res.pageMax, res.hits, res.next, mapped.messages);
+      }
+      if (res != null && key != null) {
+        resultCache.put(key, res);
+      }
+
+      return res;
     } catch (SyntaxError e) {
       logger.error("Failed to search with user query \"{}\".", query, e);
     }
@@ -195,10 +617,95 @@ public class Elastic implements IService {
     return null;
   }
 
-  private void createIndexes() throws IOException {
-    logger.info("Creating indexes...");
+  /**
+   * Counts the uploads matching a query and aggregates the tags found on them, without fetching any
+   * hits. Lets related-tag sidebars and result counts cost a single request.
+   *
+   * @param query The user's query.
+   * @param limit The most tags to return, capped to the configured facet size.
+   * @param context The searching account, if any.
+   *
+   * @return The facets, or null if the search failed.
+   */
+  public ElasticFacetResult facets(String query, int limit, @Nullable DBAccount context) {
+    limit = Math.max(1, Math.min(limit, App.config().search.facetSize));
+    try {
+      var tokens = TagTokenizer.parse(query);
+      var key = cacheKey(tokens, context) + "|f" + limit;
+
+      var cached = facetCache.get(key);
+      if (cached != null) {
+        PrometheusMetrics.SEARCH_CACHE_HITS.inc();
+        return cached;
+      }
+      PrometheusMetrics.SEARCH_CACHE_MISSES.inc();
+
+      var mapped = App.tagManager().mapQuery(tokens);
+      if (!mapped.query.hasClauses()) {
+        return new ElasticFacetResult(0, List.of(), mapped.messages);
+      }
+
+      var source = SearchSourceBuilder.searchSource()
+        .size(0)
+        .trackTotalHits(true)
+        .query(QueryBuilders.boolQuery()
+          .filter(mapped.query)
+          .filter(visibleTo(context)))
+        .aggregation(AggregationBuilders.terms("tags").field("tags").size(limit));
+      var res = client.search(new SearchRequest(IDX_UPLOADS).source(source), RequestOptions.DEFAULT);
+
+      Terms terms = res.getAggregations().get("tags");
+      var tags = new ArrayList<ElasticFacetResult.Facet>(terms.getBuckets().size());
+      for (var bucket : terms.getBuckets()) {
+        tags.add(new ElasticFacetResult.Facet(Integer.parseInt(bucket.getKeyAsString()), bucket.getDocCount()));
+      }
+
+      var ret = new ElasticFacetResult(res.getHits().getTotalHits().value, tags, mapped.messages);
+      facetCache.put(key, ret);
+
+      return ret;
+    } catch (SyntaxError e) {
+      logger.error("Failed to facet user query \"{}\".", query, e);
+    } catch (IOException ioe) {
+      logger.error("Caught IOException while faceting.", ioe);
+      PrometheusMetrics.ELASTIC_IO_ERRORS.labels("facets").inc();
+    } catch (ElasticsearchStatusException e) {
+      logger.error("Caught elastic exception while faceting.", e);
+    }
+
+    return null;
+  }
+
+  /**
+   * <p>Builds the part of a cache key shared by everything derived from a query. Tag changes move
+   * the TagManager's version, which makes older entries unreachable.</p>
+   * <p>New uploads and tag or visibility changes move the search generation once they're
+   * searchable. Both are read here, before searching, so an entry is never keyed newer than its
+   * contents. Other writes, like meta updates, only show up once the region's MaxLife expires an
+   * entry, which also bounds how long writes made on other nodes take to show. Hits are re-checked
+   * against the database when they're rendered so a hidden upload is never served from a stale
+   * entry.</p>
+   */
+  private String cacheKey(List<TagToken> tokens, @Nullable DBAccount context) {
+    return TagTokenizer.canonicalize(tokens)
+      + "|" + App.tagManager().getVersion()
+      + "|" + searchGeneration.get()
+      + "|" + (context == null ? "anon" : "a" + context.id);
+  }
+
+  /**
+   * Creates a concrete uploads index with our mapping.
+   *
+   * @param name The index to create.
+   * @param bulkLoad Whether to disable refreshes while the index is bulk loaded. They must be
+   *   re-enabled once loading finishes.
+   */
+  void createIndex(String name, boolean bulkLoad) throws IOException {
+    var uploadIndex = new CreateIndexRequest(name);
+    if (bulkLoad) {
+      uploadIndex.settings(Settings.builder().put("index.refresh_interval", "-1"));
+    }
 
-    var uploadIndex = new CreateIndexRequest(IDX_UPLOADS);
     var mappingBuilder = XContentFactory.jsonBuilder();
     mappingBuilder.startObject();
     {
@@ -206,6 +713,16 @@ public class Elastic implements IService {
       {
         _property(mappingBuilder, "id", "integer");
         _property(mappingBuilder, "tags", "keyword");
+        _property(mappingBuilder, "owner", "integer");
+        _property(mappingBuilder, "state", "long");
+        _property(mappingBuilder, "state_flags", "long");
+        _property(mappingBuilder, "upload_date", "date");
+        _property(mappingBuilder, "width", "integer");
+        _property(mappingBuilder, "height", "integer");
+        _property(mappingBuilder, "video", "boolean");
+        _property(mappingBuilder, "video_duration", "double");
+        _property(mappingBuilder, "has_audio", "boolean");
+        _property(mappingBuilder, "filesize", "long");
       }
       mappingBuilder.endObject();
     }
@@ -0,0 +1,414 @@
+package com.mtinge.yuugure.services.elastic;
+
+import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.core.Config;
+import com.mtinge.yuugure.core.ThreadFactories;
+import com.mtinge.yuugure.data.postgres.DBMediaMeta;
+import com.mtinge.yuugure.data.postgres.DBUpload;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Rebuilds the uploads index from the database without taking search down. A new
+ * <code>uploads_vN</code> index is bulk loaded from a streaming cursor while searches keep hitting
+ * the current one, then the <code>uploads</code> alias is moved over in a single atomic request and
+ * the old index dropped.</p>
+ * <p>Live writes are mirrored to the new index for the whole build. The backfill only creates
+ * documents that don't exist yet so it never overwrites a mirrored write, and any upload written to
+ * while the build ran is copied again from the database once the backfill finishes. That closes the
+ * window where a row was read just before it changed.</p>
+ * <p>Every node writes to the index, so the new index is announced on {@link #SHADOW_CHANNEL} for
+ * as long as it's being built. Other nodes mirror their writes to it and report what they wrote
+ * through Redis sets, which the catch up reads back alongside our own. A node that was disconnected
+ * from Redis when the build started misses writes until the next announcement, the drift reconciler
+ * repairs whatever that leaves behind.</p>
+ */
+final class Reindexer {
+  private static final Logger logger = LoggerFactory.getLogger(Reindexer.class);
+  private static final Pattern VERSIONED = Pattern.compile("^" + Elastic.IDX_UPLOADS + "_v([0-9]+)$");
+  private static final int PROGRESS_EVERY = 50_000;
+  /**
+   * Carries the name of the index being built, or an empty message once it's swapped in or dropped.
+   */
+  static final String SHADOW_CHANNEL = "elastic:shadow";
+  /**
+   * How often the index being built is announced again, so nodes that (re)subscribe mid-build pick
+   * it up.
+   */
+  private static final Duration SHADOW_HEARTBEAT = Duration.ofSeconds(10);
+  /**
+   * How long other nodes keep mirroring without hearing an announcement. Stops a crashed build from
+   * leaving every node writing to an index nobody will swap in.
+   */
+  private static final Duration SHADOW_LAPSE = SHADOW_HEARTBEAT.multipliedBy(3);
+  /**
+   * How long writes reported by other nodes are kept if the build never reads them back.
+   */
+  private static final Duration REPORT_TTL = Duration.ofDays(1);
+
+  /**
+   * Selects everything an upload's document is built from. Uploads without meta haven't been
+   * processed yet and leave the meta columns null.
+   */
+  static final String DOCUMENT_QUERY = """
+    SELECT u.id, u.media, u.parent, u.owner, u.upload_date, u.state,
+           mm.width, mm.height, mm.video, mm.video_duration, mm.has_audio, mm.filesize,
+           coalesce((SELECT array_agg(ut.tag) FROM upload_tags ut WHERE ut.upload = u.id), '{}') AS tags
+    FROM upload u
+    LEFT JOIN media_meta mm ON mm.media = u.media
+    """;
+
+  /**
+   * The index being built, and what was written while it was. The node running the build keeps
+   * track in memory, other nodes report to Redis.
+   */
+  static final class Shadow {
+    final String index;
+    final boolean remote;
+    final Set<Integer> touched = ConcurrentHashMap.newKeySet();
+    final Set<Integer> owners = ConcurrentHashMap.newKeySet();
+    private volatile long expires;
+
+    private Shadow(String index, boolean remote) {
+      this.index = index;
+      this.remote = remote;
+      renew();
+    }
+
+    /**
+     * @param index An index another node announced.
+     *
+     * @return A shadow reporting writes back to the node building it.
+     */
+    static Shadow remote(String index) {
+      return new Shadow(index, true);
+    }
+
+    /**
+     * Records a write to an upload. Must be called before the write is queued.
+     */
+    void touch(int id) {
+      if (remote) {
+        report(touchedKey(index), id);
+      } else {
+        touched.add(id);
+      }
+    }
+
+    /**
+     * Records a write to every upload an account owns. Must be called before the write is queued.
+     */
+    void touchOwner(int owner) {
+      if (remote) {
+        report(ownersKey(index), owner);
+      } else {
+        owners.add(owner);
+      }
+    }
+
+    /**
+     * @return Whether writes should still be mirrored to this index.
+     */
+    boolean live() {
+      return !remote || System.currentTimeMillis() < expires;
+    }
+
+    /**
+     * Extends a remote shadow after hearing it announced again.
+     */
+    void renew() {
+      expires = System.currentTimeMillis() + SHADOW_LAPSE.toMillis();
+    }
+
+    static String touchedKey(String index) {
+      return SHADOW_CHANNEL + ":" + index + ":touched";
+    }
+
+    static String ownersKey(String index) {
+      return SHADOW_CHANNEL + ":" + index + ":owners";
+    }
+
+    private static void report(String key, int value) {
+      try (var jedis = App.redis().jedis().getResource()) {
+        var pipe = jedis.pipelined();
+        pipe.sadd(key, String.valueOf(value));
+        pipe.pexpire(key, REPORT_TTL.toMillis());
+        pipe.sync();
+      } catch (Exception e) {
+        // the write itself is still mirrored, the drift reconciler catches a stale backfill row
+        logger.warn("Failed to report a write to {} for the index being rebuilt.", key, e);
+      }
+    }
+  }
+
+  private final Elastic elastic;
+  private final RestHighLevelClient client;
+  private final Config.Elasticsearch config;
+
+  Reindexer(Elastic elastic, RestHighLevelClient client, Config.Elasticsearch config) {
+    this.elastic = elastic;
+    this.client = client;
+    this.config = config;
+  }
+
+  void run() throws IOException, InterruptedException {
+    var current = client.indices().getAlias(new GetAliasesRequest(Elastic.IDX_UPLOADS), RequestOptions.DEFAULT).getAliases().keySet();
+    // before indexes were versioned "uploads" was a concrete index, it gets replaced by the alias
+    boolean legacy = current.isEmpty() && client.indices().exists(new GetIndexRequest(Elastic.IDX_UPLOADS), RequestOptions.DEFAULT);
+
+    var target = Elastic.IDX_UPLOADS + "_v" + nextVersion();
+    logger.info("Reindexing uploads into {}, currently serving from {}.", target, legacy ? Elastic.IDX_UPLOADS : current);
+
+    elastic.createIndex(target, true);
+    var shadow = new Shadow(target, false);
+    elastic.shadow(shadow);
+    var announcer = announce(target);
+
+    try {
+      // let the other nodes start mirroring before the backfill reads any row
+      Thread.sleep(settleMillis());
+
+      var loader = new BulkIndexer(client, config);
+      long copied;
+      try {
+        copied = backfill(shadow, loader);
+        copied += catchUp(shadow, loader);
+      } finally {
+        if (!loader.close(300)) {
+          logger.warn("Timed out flushing the backfill into {}.", target);
+        }
+      }
+
+      client.indices().putSettings(
+        new UpdateSettingsRequest(target).settings(Settings.builder().putNull("index.refresh_interval")),
+        RequestOptions.DEFAULT
+      );
+      client.indices().refresh(new RefreshRequest(target), RequestOptions.DEFAULT);
+
+      var swap = new IndicesAliasesRequest().addAliasAction(AliasActions.add().index(target).alias(Elastic.IDX_UPLOADS));
+      if (legacy) {
+        swap.addAliasAction(AliasActions.removeIndex().index(Elastic.IDX_UPLOADS));
+      }
+      for (var old : current) {
+        swap.addAliasAction(AliasActions.removeIndex().index(old));
+      }
+      client.indices().updateAliases(swap, RequestOptions.DEFAULT);
+
+      logger.info("Reindexed {} uploads, now serving from {}.", copied, target);
+    } catch (Exception e) {
+      elastic.shadow(null);
+      retire(announcer, shadow);
+      try {
+        // writes other nodes already queued would recreate the index with a dynamic mapping
+        Thread.sleep(settleMillis());
+        client.indices().delete(new DeleteIndexRequest(target), RequestOptions.DEFAULT);
+      } catch (Exception de) {
+        logger.error("Failed to drop the partial index {}.", target, de);
+      }
+
+      throw e;
+    }
+
+    // writes now land on the new index through the alias
+    elastic.shadow(null);
+    retire(announcer, shadow);
+    elastic.invalidateResults();
+  }
+
+  /**
+   * Announces the index being built now and every {@link #SHADOW_HEARTBEAT} until retired.
+   */
+  private ScheduledExecutorService announce(String index) {
+    var announcer = Executors.newSingleThreadScheduledExecutor(ThreadFactories.named("Elastic-shadow"));
+    announcer.scheduleAtFixedRate(() -> publish(index), 0, SHADOW_HEARTBEAT.toMillis(), TimeUnit.MILLISECONDS);
+
+    return announcer;
+  }
+
+  /**
+   * Stops announcing the index, tells the other nodes to stop mirroring, and drops their reports.
+   */
+  private void retire(ScheduledExecutorService announcer, Shadow shadow) {
+    announcer.shutdownNow();
+    try {
+      // a heartbeat landing after the empty message would start the mirroring over
+      announcer.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    publish("");
+
+    try (var jedis = App.redis().jedis().getResource()) {
+      jedis.del(Shadow.touchedKey(shadow.index), Shadow.ownersKey(shadow.index));
+    } catch (Exception e) {
+      logger.warn("Failed to drop the writes reported for {}, they expire on their own.", shadow.index, e);
+    }
+  }
+
+  private void publish(String index) {
+    try {
+      App.redis().publish(SHADOW_CHANNEL, index);
+    } catch (Exception e) {
+      logger.warn("Failed to announce the index being rebuilt.", e);
+    }
+  }
+
+  /**
+   * @return How long to wait for other nodes to act on an announcement, covering their bulk flush.
+   */
+  private long settleMillis() {
+    return Math.max(2000L, config.bulkFlushMillis * 2L);
+  }
+
+  /**
+   * Reads back the values other nodes reported to a Redis set.
+   */
+  private static Set<Integer> reported(String key) {
+    var ret = new HashSet<Integer>();
+    try (var jedis = App.redis().jedis().getResource()) {
+      for (var value : jedis.smembers(key)) {
+        ret.add(Integer.parseInt(value));
+      }
+    }
+
+    return ret;
+  }
+
+  private int nextVersion() throws IOException {
+    var existing = client.indices().get(new GetIndexRequest(Elastic.IDX_UPLOADS + "_v*"), RequestOptions.DEFAULT).getIndices();
+
+    int max = 0;
+    for (var name : existing) {
+      var matcher = VERSIONED.matcher(name);
+      if (matcher.matches()) {
+        max = Math.max(max, Integer.parseInt(matcher.group(1)));
+      }
+    }
+
+    return max + 1;
+  }
+
+  /**
+   * Streams every upload into the new index. Uploads that were written to during the build are
+   * skipped, {@link #catchUp(Shadow, BulkIndexer)} copies them once the backfill is done.
+   */
+  private long backfill(Shadow shadow, BulkIndexer loader) {
+    return App.database().jdbi().inTransaction(handle -> {
+      long copied = 0;
+      // postgres only streams with a fetch size inside a transaction, otherwise the whole result
+      // set is buffered in memory
+      try (var rows = handle.createQuery(DOCUMENT_QUERY + " ORDER BY u.id")
+        .setFetchSize(config.reindexFetchSize)
+        .map((rs, ctx) -> document(rs))
+        .stream()) {
+        for (var it = rows.iterator(); it.hasNext(); ) {
+          var doc = it.next();
+          if (shadow.touched.contains((Integer) doc.get("id"))) continue;
+
+          loader.add(new IndexRequest(shadow.index)
+            .id(String.valueOf(doc.get("id")))
+            .opType(DocWriteRequest.OpType.CREATE)
+            .source(doc));
+
+          if (++copied % PROGRESS_EVERY == 0) {
+            logger.info("Reindex queued {} uploads into {}.", copied, shadow.index);
+          }
+        }
+      }
+
+      return copied;
+    });
+  }
+
+  /**
+   * Copies every upload written to during the build again, fresh from the database. Includes what
+   * other nodes reported writing.
+   */
+  private long catchUp(Shadow shadow, BulkIndexer loader) {
+    var touched = reported(Shadow.touchedKey(shadow.index));
+    touched.addAll(shadow.touched);
+    var owned = reported(Shadow.ownersKey(shadow.index));
+    owned.addAll(shadow.owners);
+
+    var ids = touched.toArray(new Integer[0]);
+    var owners = owned.toArray(new Integer[0]);
+    if (ids.length == 0 && owners.length == 0) {
+      return 0;
+    }
+
+    var docs = App.database().jdbi().withHandle(handle ->
+      handle.createQuery(DOCUMENT_QUERY + " WHERE u.id = ANY(:ids) OR u.owner = ANY(:owners)")
+        .bindArray("ids", Integer.class, (Object[]) ids)
+        .bindArray("owners", Integer.class, (Object[]) owners)
+        .map((rs, ctx) -> document(rs))
+        .list()
+    );
+    for (var doc : docs) {
+      loader.add(new IndexRequest(shadow.index)
+        .id(String.valueOf(doc.get("id")))
+        .source(doc));
+    }
+
+    return docs.size();
+  }
+
+  /**
+   * Builds an upload's document from a {@link #DOCUMENT_QUERY} row.
+   */
+  static Map<String, Object> document(ResultSet rs) throws SQLException {
+    var upload = new DBUpload(
+      rs.getInt("id"),
+      rs.getInt("media"),
+      rs.getInt("parent"),
+      rs.getInt("owner"),
+      rs.getTimestamp("upload_date"),
+      rs.getLong("state")
+    );
+
+    var doc = Elastic.uploadFields(upload);
+    doc.put("id", upload.id);
+    doc.put("tags", Arrays.asList((Integer[]) rs.getArray("tags").getArray()));
+
+    int width = rs.getInt("width");
+    if (!rs.wasNull()) {
+      doc.putAll(Elastic.metaFields(new DBMediaMeta(
+        0,
+        upload.media,
+        width,
+        rs.getInt("height"),
+        rs.getBoolean("video"),
+        rs.getDouble("video_duration"),
+        rs.getBoolean("has_audio"),
+        rs.getLong("filesize")
+      )));
+    }
+
+    return doc;
+  }
+}
@@ -10,6 +10,7 @@ import com.mtinge.yuugure.data.http.ReportResponse;
 import com.mtinge.yuugure.data.http.Response;
 import com.mtinge.yuugure.data.http.SafeAccount;
 import com.mtinge.yuugure.data.postgres.DBAccount;
+import com.mtinge.yuugure.services.database.CommitHooks;
 import com.mtinge.yuugure.services.database.props.AccountProps;
 import com.mtinge.yuugure.services.http.Responder;
 import com.mtinge.yuugure.services.http.handlers.SessionHandler;
@@ -61,6 +62,7 @@ public class AccountResource extends APIResource<DBAccount> {
                     try {
                       var delres = App.database().accounts.delete(authed.id, handle);
                       if (delres.isSuccess()) {
+                        CommitHooks.afterCommit(handle, () -> App.elastic().flagUploadsForOwner(authed.id, States.Upload.DELETED));
                         handle.commit();
                         return true;
                       } else {
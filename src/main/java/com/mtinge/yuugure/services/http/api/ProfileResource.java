@@ -1,11 +1,13 @@
 package com.mtinge.yuugure.services.http.api;
 
 import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.core.States;
 import com.mtinge.yuugure.data.http.BulkPaginatedResponse;
 import com.mtinge.yuugure.data.http.ProfileResponse;
 import com.mtinge.yuugure.data.http.Response;
 import com.mtinge.yuugure.data.http.SafeAccount;
 import com.mtinge.yuugure.data.postgres.DBAccount;
+import com.mtinge.yuugure.services.database.CommitHooks;
 import com.mtinge.yuugure.services.database.UploadFetchParams;
 import com.mtinge.yuugure.services.http.Responder;
 import com.mtinge.yuugure.services.http.util.MethodValidator;
@@ -83,7 +85,14 @@ public class ProfileResource extends APIResource<DBAccount> {
               if (token != null) {
                 if (App.redis().confirmToken(token, authed, true)) {
                   try {
-                    var updated = App.database().jdbi().inTransaction(handle -> App.database().uploads.deleteForAccount(authed.id, handle));
+                    var updated = App.database().jdbi().inTransaction(handle -> {
+                      var deleted = App.database().uploads.deleteForAccount(authed.id, handle);
+                      if (deleted.isSuccess()) {
+                        CommitHooks.afterCommit(handle, () -> App.elastic().flagUploadsForOwner(authed.id, States.Upload.DELETED));
+                      }
+
+                      return deleted;
+                    });
                     if (updated.isSuccess()) {
                       res.json(Response.good().addMessage("Deleted " + updated.getResource() + " uploads."));
                     } else {
@@ -0,0 +1,72 @@
+package com.mtinge.yuugure.services.http.api;
+
+import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.data.http.Response;
+import com.mtinge.yuugure.data.http.TagCompletion;
+import com.mtinge.yuugure.data.http.TagCompletionResponse;
+import com.mtinge.yuugure.data.postgres.DBTag;
+import com.mtinge.yuugure.services.http.Responder;
+import com.mtinge.yuugure.services.http.util.MethodValidator;
+import com.mtinge.yuugure.services.http.util.QueryHelper;
+import io.undertow.Handlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathTemplateHandler;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+
+import java.util.stream.Collectors;
+
+public class TagResource extends APIResource<DBTag> {
+  private static final int DEFAULT_COMPLETIONS = 10;
+
+  @Override
+  public PathTemplateHandler getRoutes() {
+    return Handlers.pathTemplate()
+      .add("/complete", this::handleComplete);
+  }
+
+  /**
+   * Serves autocomplete suggestions for <code>?q=</code>. Runs on every keystroke so it never
+   * touches the database, and responses carry an ETag tied to the TagManager's state so clients
+   * can revalidate for free.
+   */
+  private void handleComplete(HttpServerExchange exchange) {
+    if (!MethodValidator.handleMethodValidation(exchange, Methods.GET)) {
+      return;
+    }
+
+    var res = Responder.with(exchange);
+    var params = new QueryHelper(exchange.getQueryParameters());
+    var prefix = params.first("q");
+
+    var limit = DEFAULT_COMPLETIONS;
+    var qLimit = params.first("limit");
+    if (qLimit.matches("^[0-9]{1,4}$")) {
+      limit = Integer.parseInt(qLimit);
+    }
+
+    // read the tag before the results so a response is never labeled newer than its contents
+    var etag = new ETag(false, App.tagManager().getCompletionTag());
+    res.header(Headers.ETAG, etag.toString());
+    res.header(Headers.CACHE_CONTROL, "no-cache");
+    if (!ETagUtils.handleIfNoneMatch(exchange, etag, false)) {
+      exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+      exchange.endExchange();
+      return;
+    }
+
+    var tags = App.tagManager().complete(prefix, limit).stream()
+      .map(TagCompletion::fromMutable)
+      .collect(Collectors.toList());
+    res.json(Response.good(new TagCompletionResponse(prefix, tags)));
+  }
+
+  @Override
+  protected ResourceResult<DBTag> fetchResource(HttpServerExchange exchange) {
+    // tags are only served through completions, there are no per-tag routes
+    return ResourceResult.notFound();
+  }
+}
@@ -1,9 +1,12 @@
 package com.mtinge.yuugure.services.http.api;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.core.States;
+import com.mtinge.yuugure.data.http.BulkRenderableUpload;
 import com.mtinge.yuugure.data.http.ReportResponse;
 import com.mtinge.yuugure.data.http.Response;
+import com.mtinge.yuugure.data.http.SimilarUploads;
 import com.mtinge.yuugure.data.postgres.DBUpload;
 import com.mtinge.yuugure.data.postgres.states.UploadState;
 import com.mtinge.yuugure.services.database.Database;
@@ -25,15 +28,29 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.Collectors;
 
 public class UploadResource extends APIResource<DBUpload> {
   private static final Logger logger = LoggerFactory.getLogger(UploadResource.class);
+  /**
+   * Uploads of the given media the searcher may see, mirroring the state checks in
+   * {@link com.mtinge.yuugure.services.database.providers.UploadProvider#getUploadsForSearch}.
+   */
+  private static final String SIMILAR_VISIBLE = """
+    SELECT id, media FROM upload
+    WHERE media = ANY(:media) AND id <> :id
+      AND ((state & :hidden) = 0 OR (owner = :account AND (state & :ownHidden) = 0))
+    """;
 
   @Override
   public PathTemplateHandler getRoutes() {
     return Handlers.pathTemplate()
       .add("/index", this::fetchForIndex)
       .add("/{upload}", this::handleRaw)
+      .add("/{upload}/similar", this::fetchSimilar)
       .add("/{upload}/{action}", this::handleAction);
   }
 
@@ -46,6 +63,77 @@ public class UploadResource extends APIResource<DBUpload> {
     }
   }
 
+  /**
+   * Finds uploads whose media looks like this upload's, closest first. Other uploads of the same
+   * media are included at a distance of 0.
+   */
+  private void fetchSimilar(HttpServerExchange exchange) {
+    if (MethodValidator.handleMethodValidation(exchange, Methods.GET)) {
+      var resource = fetchResource(exchange);
+      if (resource.state != FetchState.OK) {
+        sendTerminalForState(exchange, resource.state);
+        return;
+      }
+
+      var config = App.config().similarity;
+      int maxDistance = config.maxDistance;
+      var qDistance = exchange.getQueryParameters().get("distance");
+      if (qDistance != null && !qDistance.isEmpty() && qDistance.getFirst().matches("^[0-9]{1,2}$")) {
+        maxDistance = Integer.parseInt(qDistance.getFirst());
+      }
+
+      final int _maxDistance = maxDistance;
+      var authed = exchange.getAttachment(SessionHandler.ATTACHMENT_KEY);
+      var similar = App.database().jdbi().withHandle(handle -> {
+        var media = App.database().media.read(resource.resource.media, handle);
+        var distances = new HashMap<Integer, Integer>();
+        if (media == null || media.phash == null || media.phash.isBlank()) {
+          return new SimilarUploads(App.database().uploads.getUploadsForSearch(new IntList(0), authed, handle), distances);
+        }
+
+        // visibility is checked before limiting, hidden uploads would otherwise use up the slots
+        var byMedia = new HashMap<Integer, Integer>();
+        byMedia.put(media.id, 0);
+        for (var found : App.similarity().similar(media.phash, _maxDistance, Integer.MAX_VALUE, media.id)) {
+          byMedia.put(found.media, found.distance);
+        }
+
+        var byUpload = new HashMap<Integer, Integer>();
+        handle.createQuery(SIMILAR_VISIBLE)
+          .bindArray("media", Integer.class, byMedia.keySet().toArray())
+          .bind("id", resource.resource.id)
+          .bind("hidden", States.compute(States.Upload.DELETED, States.Upload.DMCA, States.Upload.PRIVATE))
+          .bind("ownHidden", States.compute(States.Upload.DELETED, States.Upload.DMCA))
+          .bind("account", authed == null ? -1 : authed.id)
+          .map((rs, ctx) -> new int[]{rs.getInt("id"), rs.getInt("media")})
+          .forEach(row -> byUpload.put(row[0], byMedia.get(row[1])));
+
+        var closest = byUpload.keySet().stream()
+          .sorted(Comparator.<Integer>comparingInt(byUpload::get).thenComparing(Comparator.reverseOrder()))
+          .limit(config.resultSize)
+          .collect(Collectors.toList());
+        var ids = new IntList(closest.size());
+        closest.forEach(ids::add);
+
+        // only report distances for uploads the searcher can see, the rest aren't returned and their
+        // IDs would leak through the keys
+        var found = App.database().uploads.getUploadsForSearch(ids, authed, handle);
+        for (var upload : found.uploads) {
+          distances.put(upload.upload.id, byUpload.get(upload.upload.id));
+        }
+
+        // fetched newest first, the list is sorted closest first with the newest of equals first
+        var sorted = new ArrayList<>(found.uploads);
+        sorted.sort(Comparator.comparingInt(u -> distances.get(u.upload.id)));
+        var uploads = new BulkRenderableUpload(found.accounts, found.tags, found.medias, found.metas, sorted);
+
+        return new SimilarUploads(uploads, distances);
+      });
+
+      Responder.with(exchange).json(Response.good(similar));
+    }
+  }
+
   private void handleRaw(HttpServerExchange exchange) {
     var res = Responder.with(exchange);
     if (MethodValidator.handleMethodValidation(exchange, Methods.GET, Methods.DELETE)) {
@@ -87,6 +175,7 @@ public class UploadResource extends APIResource<DBUpload> {
             });
 
             if (delres.isSuccess()) {
+              App.elastic().setStateForUpload(delres.getResource());
               App.webServer().lobby().in(resource.resource).broadcast(
                 OutgoingPacket.uploadStateUpdate(UploadState.fromDb(delres.getResource()))
               );
@@ -300,6 +389,7 @@ public class UploadResource extends APIResource<DBUpload> {
               });
 
               if (updated != null) {
+                App.elastic().setStateForUpload(updated);
                 App.webServer().lobby().in(resource.resource).broadcast(
                   OutgoingPacket.uploadStateUpdate(UploadState.fromDb(updated))
                 );
@@ -3,6 +3,7 @@ package com.mtinge.yuugure.services.http.routes;
 import com.mtinge.yuugure.services.http.api.AccountResource;
 import com.mtinge.yuugure.services.http.api.CommentResource;
 import com.mtinge.yuugure.services.http.api.ProfileResource;
+import com.mtinge.yuugure.services.http.api.TagResource;
 import com.mtinge.yuugure.services.http.api.UploadResource;
 import io.undertow.Handlers;
 import io.undertow.server.handlers.PathHandler;
@@ -20,7 +21,8 @@ public class RouteAPI extends Route {
       .addPrefixPath("/upload", new UploadResource().getRoutes())
       .addPrefixPath("/account", new AccountResource().getRoutes())
       .addPrefixPath("/profile", new ProfileResource().getRoutes())
-      .addPrefixPath("/comment", new CommentResource().getRoutes());
+      .addPrefixPath("/comment", new CommentResource().getRoutes())
+      .addPrefixPath("/tags", new TagResource().getRoutes());
   }
 
   @Override
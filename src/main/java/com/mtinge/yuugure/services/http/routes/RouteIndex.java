@@ -1,10 +1,13 @@
 package com.mtinge.yuugure.services.http.routes;
 
+import com.mtinge.AcceptParser.Mime;
 import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.data.postgres.DBUpload;
 import com.mtinge.yuugure.services.database.UploadFetchParams;
 import com.mtinge.yuugure.services.http.Responder;
+import com.mtinge.yuugure.services.http.handlers.AcceptsHandler;
 import com.mtinge.yuugure.services.http.handlers.ViewHandler;
+import com.mtinge.yuugure.services.processor.Thumbnails;
 import io.undertow.Handlers;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.PathHandler;
@@ -14,6 +17,7 @@ import io.undertow.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Map;
@@ -106,7 +110,9 @@ public class RouteIndex extends Route {
         var path = Path.of(App.config().upload.finalDir, media.sha256 + ".thumb");
         if (path.toFile().exists()) {
           // serve from the filesystem
-          _serveFromUploadsDir(exchange, media.sha256 + ".thumb", "image/png"); // all thumbs are image/png
+          var variant = _pickThumb(exchange, path);
+          exchange.getResponseHeaders().put(Headers.VARY, "Accept");
+          _serveFromUploadsDir(exchange, variant.path(path).getFileName().toString(), variant.format.mime);
         } else {
           // have to pump the defualt processing png manually
           exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "image/png");
@@ -133,6 +139,54 @@ public class RouteIndex extends Route {
     }
   }
 
+  /**
+   * Picks the thumbnail variant to serve. The requested size is rounded up to the nearest rendered
+   * size, and the most preferred format the client explicitly accepts wins. Variants that weren't
+   * rendered (e.g. the source was smaller than the size, or it was processed before the variant was
+   * configured) fall back to smaller sizes and eventually to the base PNG.
+   *
+   * @param exchange The exchange being served.
+   * @param thumbPath The upload's base <code>.thumb</code> path, which must exist.
+   *
+   * @return The variant to serve.
+   */
+  private Thumbnails.Variant _pickThumb(HttpServerExchange exchange, Path thumbPath) {
+    var config = App.config().upload.thumbnails;
+    var sizes = Thumbnails.sizes(config);
+
+    int wanted = Thumbnails.BASE_SIZE;
+    var qSize = exchange.getQueryParameters().get("size");
+    if (qSize != null && !qSize.isEmpty() && qSize.getFirst().matches("^[0-9]{1,5}$")) {
+      wanted = Integer.parseInt(qSize.getFirst());
+    }
+
+    int start = sizes.size() - 1;
+    for (int i = 0; i < sizes.size(); i++) {
+      if (sizes.get(i) >= wanted) {
+        start = i;
+        break;
+      }
+    }
+
+    var accepts = exchange.getAttachment(AcceptsHandler.ATTACHMENT_KEY);
+    var formats = Thumbnails.formats(config);
+    for (int i = start; i >= 0; i--) {
+      for (var format : formats) {
+        // browsers send image/* even when they can't decode webp/avif, only trust explicit support
+        if (format != Thumbnails.Format.PNG && (accepts == null || !accepts.hasExactMatch(Mime.parse(format.mime)))) {
+          continue;
+        }
+
+        var variant = new Thumbnails.Variant(sizes.get(i), format);
+        if (variant.isBase() || Files.exists(variant.path(thumbPath))) {
+          return variant;
+        }
+      }
+    }
+
+    return new Thumbnails.Variant(Thumbnails.BASE_SIZE, Thumbnails.Format.PNG);
+  }
+
   private void _serveFromUploadsDir(HttpServerExchange exchange, String fileName, String mime) throws Exception {
     // note: I don't like this, but this is the cleanest way to get everything working without
     //       ripping out undertow's underlying code for ourselves. This handles etags, byte ranges,
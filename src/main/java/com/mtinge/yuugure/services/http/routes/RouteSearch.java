@@ -1,10 +1,16 @@
 package com.mtinge.yuugure.services.http.routes;
 
+import com.mtinge.IntCollections.IntList;
 import com.mtinge.yuugure.App;
 import com.mtinge.yuugure.core.PrometheusMetrics;
+import com.mtinge.yuugure.data.elastic.SearchCursor;
 import com.mtinge.yuugure.data.http.Response;
+import com.mtinge.yuugure.data.http.SafeTag;
+import com.mtinge.yuugure.data.http.SearchFacets;
 import com.mtinge.yuugure.data.http.SearchPagination;
 import com.mtinge.yuugure.data.http.SearchResult;
+import com.mtinge.yuugure.data.http.TagFacet;
+import com.mtinge.yuugure.data.postgres.DBTag;
 import com.mtinge.yuugure.services.http.Responder;
 import com.mtinge.yuugure.services.http.handlers.SessionHandler;
 import io.undertow.Handlers;
@@ -12,25 +18,81 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.PathHandler;
 import io.undertow.util.StatusCodes;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+
 public class RouteSearch extends Route {
   private final PathHandler pathHandler;
 
   public RouteSearch() {
     super();
     pathHandler = Handlers.path()
+      .addPrefixPath("/facets", this::handleFacets)
       .addPrefixPath("/", this::handleSearch);
   }
 
+  /**
+   * Responds with the total number of uploads matching a query and the tags most common among them.
+   * No uploads are fetched, this is meant for result counts and related-tag lists.
+   */
+  private void handleFacets(HttpServerExchange exchange) {
+    var res = Responder.with(exchange);
+    var qQuery = exchange.getQueryParameters().get("q");
+    var qLimit = exchange.getQueryParameters().get("limit");
+
+    var q = qQuery == null || qQuery.isEmpty() ? null : qQuery.getFirst();
+    if (q == null || q.isBlank()) {
+      res.status(StatusCodes.BAD_REQUEST).json(Response.fromCode(StatusCodes.BAD_REQUEST).addMessage("Missing search query"));
+      return;
+    }
+
+    int limit = App.config().search.facetSize;
+    if (qLimit != null && !qLimit.isEmpty() && qLimit.getFirst().matches("^[0-9]{1,9}$")) {
+      limit = Integer.parseInt(qLimit.getFirst());
+    }
+
+    var authed = exchange.getAttachment(SessionHandler.ATTACHMENT_KEY);
+    var facets = App.elastic().facets(q, limit, authed);
+    if (facets == null) {
+      res.status(StatusCodes.INTERNAL_SERVER_ERROR).json(Response.fromCode(StatusCodes.INTERNAL_SERVER_ERROR));
+      return;
+    }
+
+    var ids = new IntList(facets.tags.size());
+    for (var facet : facets.tags) {
+      ids.add(facet.tag);
+    }
+    var byId = new HashMap<Integer, DBTag>();
+    for (var tag : App.tagManager().getTags(ids)) {
+      byId.put(tag.id, tag);
+    }
+
+    // keep elastic's ordering, most common first
+    var tags = new LinkedList<TagFacet>();
+    for (var facet : facets.tags) {
+      var tag = byId.get(facet.tag);
+      if (tag != null) {
+        tags.add(new TagFacet(SafeTag.fromDb(tag), facet.count));
+      }
+    }
+
+    var response = Response.good().addData(new SearchFacets(facets.total, tags));
+    facets.messages.forEach(response::addMessage);
+
+    res.json(response);
+  }
+
   private void handleSearch(HttpServerExchange exchange) {
     var res = Responder.with(exchange);
     if (res.wantsJson()) {
       var qQuery = exchange.getQueryParameters().get("q");
       var qPage = exchange.getQueryParameters().get("page");
+      var qCursor = exchange.getQueryParameters().get("cursor");
       if (qQuery != null && !qQuery.isEmpty()) {
         int page = 1;
         if (qPage != null && !qPage.isEmpty()) {
           var _page = qPage.getFirst();
-          if (_page.matches("^[0-9]+$")) {
+          if (_page.matches("^[0-9]{1,9}$")) {
             page = Integer.parseInt(_page);
             if (page <= 0) {
               page = 1;
@@ -38,15 +100,28 @@ public class RouteSearch extends Route {
           }
         }
 
+        // a cursor from a previous page takes precedence, it's far cheaper than an offset
+        SearchCursor cursor = null;
+        if (qCursor != null && !qCursor.isEmpty() && !qCursor.getFirst().isBlank()) {
+          cursor = SearchCursor.decode(qCursor.getFirst());
+          if (cursor == null) {
+            res.status(StatusCodes.BAD_REQUEST).json(Response.fromCode(StatusCodes.BAD_REQUEST).addMessage("Invalid search cursor"));
+            return;
+          }
+        }
+
         var q = qQuery.getFirst();
         if (q != null && !q.isBlank()) {
-          PrometheusMetrics.SEARCH_TOTAL.labels(String.valueOf(exchange.getAttachment(SessionHandler.ATTACHMENT_KEY) != null)).inc(); // label: authed
-          var searchResult = App.elastic().search(q, page);
+          var authed = exchange.getAttachment(SessionHandler.ATTACHMENT_KEY);
+          PrometheusMetrics.SEARCH_TOTAL.labels(String.valueOf(authed != null)).inc(); // label: authed
+          var searchResult = cursor != null ? App.elastic().search(q, cursor, authed) : App.elastic().search(q, page, authed);
           if (searchResult != null) {
-            var authed = exchange.getAttachment(SessionHandler.ATTACHMENT_KEY);
             var uploads = App.database().jdbi().withHandle(handle -> App.database().uploads.getUploadsForSearch(searchResult.hits, authed, handle));
 
-            res.json(Response.good().addData(new SearchResult(new SearchPagination(searchResult.pageCurrent, searchResult.pageMax), uploads)));
+            var response = Response.good().addData(new SearchResult(new SearchPagination(searchResult.pageCurrent, searchResult.pageMax, searchResult.next), uploads));
+            searchResult.messages.forEach(response::addMessage);
+
+            res.json(response);
           } else {
             res.status(StatusCodes.INTERNAL_SERVER_ERROR).json(Response.fromCode(StatusCodes.INTERNAL_SERVER_ERROR));
           }
@@ -8,6 +8,7 @@ import com.mtinge.yuugure.core.TagManager.TagDescriptor;
 import com.mtinge.yuugure.data.http.Response;
 import com.mtinge.yuugure.data.http.UploadResult;
 import com.mtinge.yuugure.data.postgres.DBTag;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 import com.mtinge.yuugure.services.database.props.MediaProps;
 import com.mtinge.yuugure.services.database.props.ProcessingQueueProps;
 import com.mtinge.yuugure.services.database.props.UploadProps;
@@ -247,7 +248,7 @@ public class RouteUpload extends Route {
 
                                         var toRet = App.database().uploads.create(new UploadProps().media(media.id).owner(account.id).state(uploadState), handle).getResource();
                                         if (toRet != null) {
-                                          var pq = App.database().processors.create(new ProcessingQueueProps().upload(toRet.id), handle);
+                                          var pq = App.database().processors.create(new ProcessingQueueProps().upload(toRet.id).priority(QueuePriority.INTERACTIVE), handle);
                                           if (pq != null) {
                                             uploadResult.setSuccess(true);
                                             uploadResult.setUpload(App.database().uploads.makeUploadRenderable(toRet, account, handle));
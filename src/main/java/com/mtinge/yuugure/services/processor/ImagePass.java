@@ -0,0 +1,126 @@
+package com.mtinge.yuugure.services.processor;
+
+import com.mtinge.yuugure.core.Config;
+import lombok.AllArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * <p>Reads and thumbnails still images inside the JVM. Forking ffprobe and ffmpeg costs far more
+ * than the work itself for a typical image, so common formats are handled here and everything else
+ * (videos, animations, anything ImageIO can't read) falls back to the ffmpeg path.</p>
+ * <p>Dimensions come from the image headers. Large images are decoded with subsampling so we never
+ * hold more than a few times the thumbnail's pixels in memory, the final resize is bicubic like the
+ * ffmpeg path.</p>
+ */
+@AllArgsConstructor
+public class ImagePass {
+  private static final Logger logger = LoggerFactory.getLogger(ImagePass.class);
+  private static final Set<String> MIMES = Set.of("image/jpeg", "image/png", "image/gif");
+  /**
+   * How much larger than the thumbnail a subsampled decode is allowed to stay. Subsampling just
+   * drops pixels, leaving some headroom lets the bicubic resize do the final smoothing.
+   */
+  private static final int SUBSAMPLE_HEADROOM = 2;
+
+  public final int width;
+  public final int height;
+  public final long fileSize;
+
+  public static boolean handles(String mime) {
+    return MIMES.contains(mime.toLowerCase());
+  }
+
+  /**
+   * @param fullPath The image to read.
+   * @param thumbPath Where to write the base thumbnail, overwritten if it exists.
+   * @param thumbnails The thumbnail variants to render, or null to only render the base thumbnail.
+   *
+   * @return The image's info, or null if it can't be handled here and should go through ffmpeg.
+   */
+  @Nullable
+  public static ImagePass run(Path fullPath, Path thumbPath, @Nullable Config.Upload.Thumbnails thumbnails) {
+    try (var iis = ImageIO.createImageInputStream(fullPath.toFile())) {
+      if (iis == null) return null;
+
+      var readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) return null;
+
+      var reader = readers.next();
+      try {
+        reader.setInput(iis, false, true);
+
+        // animated gifs are stitched from partial frames, ffmpeg composes them properly
+        if (reader.getFormatName().equalsIgnoreCase("gif") && reader.getNumImages(true) != 1) {
+          return null;
+        }
+
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if (width <= 0 || height <= 0) return null;
+
+        var variants = Thumbnails.variants(thumbnails, width, height);
+        int largest = 0;
+        for (var variant : variants) {
+          largest = Math.max(largest, variant.size);
+        }
+
+        // subsample for the largest variant, the smaller ones get more headroom for free
+        var param = reader.getDefaultReadParam();
+        int factor = Math.max(1, Math.max(width, height) / (largest * SUBSAMPLE_HEADROOM));
+        if (factor > 1) {
+          param.setSourceSubsampling(factor, factor, 0, 0);
+        }
+
+        var decoded = reader.read(0, param);
+        for (var variant : variants) {
+          if (variant.format != Thumbnails.Format.PNG) continue;
+          if (!ImageIO.write(scale(decoded, width, height, variant.size), "png", variant.path(thumbPath).toFile())) {
+            return null;
+          }
+        }
+
+        // the PNGs are our fallback, a failure here only costs bandwidth
+        Thumbnails.encode(thumbPath, variants);
+
+        return new ImagePass(width, height, Files.size(fullPath));
+      } finally {
+        reader.dispose();
+      }
+    } catch (Exception e) {
+      // unsupported variants (e.g. CMYK jpegs) throw here, ffmpeg gets a shot at them
+      logger.debug("Falling back to ffmpeg for path {}.", fullPath, e);
+      return null;
+    }
+  }
+
+  /**
+   * Resizes an image to fit its longest side to {@code size}, the same rule as the ffmpeg scale
+   * filter.
+   */
+  private static BufferedImage scale(BufferedImage image, int width, int height, int size) {
+    boolean wide = width > height;
+    int thumbWidth = wide ? size : Math.max(1, Math.round((float) width * size / height));
+    int thumbHeight = wide ? Math.max(1, Math.round((float) height * size / width)) : size;
+
+    var thumb = new BufferedImage(thumbWidth, thumbHeight, BufferedImage.TYPE_INT_ARGB);
+    var g = thumb.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      g.drawImage(image, 0, 0, thumbWidth, thumbHeight, null);
+    } finally {
+      g.dispose();
+    }
+
+    return thumb;
+  }
+}
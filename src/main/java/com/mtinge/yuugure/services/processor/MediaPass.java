@@ -0,0 +1,178 @@
+package com.mtinge.yuugure.services.processor;
+
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.Filter;
+import com.github.kokorin.jaffree.ffmpeg.FilterChain;
+import com.github.kokorin.jaffree.ffmpeg.FilterGraph;
+import com.github.kokorin.jaffree.ffmpeg.NullOutput;
+import com.github.kokorin.jaffree.ffmpeg.UrlInput;
+import lombok.AllArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Renders the thumbnails and measures the audio volume of a file with a single ffmpeg invocation.
+ * The file is opened twice within the one process: a seeked input feeds the thumbnails so we don't
+ * decode everything before the frame we want, and an unseeked input feeds
+ * <code>volumedetect</code> with the first 60 seconds of audio.</p>
+ * <p>Stream info has to be known up front to pick the seek position and to decide whether there's
+ * any audio to wire into the filter graph, so {@link ProbeStreams} still runs first. If the combined
+ * run fails with audio wired in, the thumbnails are rendered again on their own.</p>
+ */
+@AllArgsConstructor
+public class MediaPass {
+  private static final Logger logger = LoggerFactory.getLogger(MediaPass.class);
+  private static final String VOLUME_LINK = "volume";
+
+  /**
+   * The detected volume, or null if there was no audio stream or no volume could be read from it.
+   */
+  @Nullable
+  public final VolumeData volume;
+
+  /**
+   * @param fullPath The file to read.
+   * @param thumbPath Where to write the base thumbnail, overwritten if it exists.
+   * @param variants The thumbnail variants to render, see {@link Thumbnails#variants}.
+   * @param seekMillis How far into the file to take the thumbnail from.
+   * @param format The input format to force, if ffmpeg can't be trusted to detect it.
+   * @param audio Whether the file has an audio stream to measure.
+   *
+   * @return The pass' results, or null if ffmpeg failed and no thumbnail was written.
+   */
+  @Nullable
+  public static MediaPass run(Path fullPath, Path thumbPath, List<Thumbnails.Variant> variants, long seekMillis, @Nullable String format, boolean audio) {
+    try {
+      return new MediaPass(execute(fullPath, thumbPath, variants, seekMillis, format, audio));
+    } catch (Exception e) {
+      if (!audio) {
+        logger.error("Failed to run the media pass for path {}.", fullPath, e);
+        return null;
+      }
+
+      // a broken audio stream fails the whole graph, the thumbnails matter more than the volume
+      logger.warn("Failed to run the media pass for path {}, retrying without volume detection.", fullPath, e);
+    }
+
+    try {
+      return new MediaPass(execute(fullPath, thumbPath, variants, seekMillis, format, false));
+    } catch (Exception e) {
+      logger.error("Failed to run the media pass for path {}.", fullPath, e);
+      return null;
+    }
+  }
+
+  /**
+   * Runs ffmpeg once, see {@link #run(Path, Path, List, long, String, boolean)}.
+   *
+   * @return The detected volume, null if {@code audio} was false or no volume could be read.
+   */
+  @Nullable
+  private static VolumeData execute(Path fullPath, Path thumbPath, List<Thumbnails.Variant> variants, long seekMillis, @Nullable String format, boolean audio) {
+    var lines = new LinkedList<String>();
+
+    var thumbInput = UrlInput.fromPath(fullPath).setPosition(seekMillis);
+    if (format != null) {
+      thumbInput.setFormat(format);
+    }
+
+    var ffmpeg = FFmpeg.atPath()
+      .addInput(thumbInput)
+      .addArguments("-sws_flags", "bicubic+full_chroma_inp")
+      .setOverwriteOutput(true);
+
+    var chains = new LinkedList<FilterChain>();
+    thumbnails(chains, ffmpeg, thumbPath, variants);
+
+    if (audio) {
+      var audioInput = UrlInput.fromPath(fullPath);
+      if (format != null) {
+        audioInput.setFormat(format);
+      }
+
+      chains.add(FilterChain.of(
+        Filter.fromInputLink("1:a:0")
+          .setName("volumedetect")
+          .addOutputLink(VOLUME_LINK)
+      ));
+      ffmpeg
+        .addInput(audioInput)
+        .addOutput(
+          new NullOutput(false)
+            .addArguments("-map", "[" + VOLUME_LINK + "]")
+            .setDuration(60, TimeUnit.SECONDS)
+        )
+        .setOutputListener(line -> {
+          if (line.startsWith("[Parsed_volumedetect")) {
+            lines.add(line);
+          }
+        });
+    }
+
+    ffmpeg
+      .setComplexFilter(FilterGraph.of(chains.toArray(new FilterChain[0])))
+      .execute();
+
+    return audio ? VolumeData.parse(lines) : null;
+  }
+
+  /**
+   * Wires the thumbnail variants into the filter graph. The video stream is split once per size and
+   * each scaled copy is split again once per format, so every frame is only scaled once per size.
+   */
+  private static void thumbnails(List<FilterChain> chains, FFmpeg ffmpeg, Path thumbPath, List<Thumbnails.Variant> variants) {
+    var bySize = new LinkedHashMap<Integer, List<Thumbnails.Variant>>();
+    for (var variant : variants) {
+      bySize.computeIfAbsent(variant.size, k -> new LinkedList<>()).add(variant);
+    }
+
+    var sources = split(chains, "0:v:0", "v", bySize.size());
+    int i = 0;
+    for (var entry : bySize.entrySet()) {
+      int size = entry.getKey();
+      var scaled = "s" + size;
+      chains.add(FilterChain.of(
+        Filter.fromInputLink(sources.get(i++))
+          .setName("scale")
+          .addArgumentEscaped("'if(gt(a,1),%d,-1)':'if(gt(a,1),-1,%d)'".formatted(size, size))
+          .addOutputLink(scaled)
+      ));
+
+      var outputs = split(chains, scaled, scaled + "f", entry.getValue().size());
+      int j = 0;
+      for (var variant : entry.getValue()) {
+        ffmpeg.addOutput(Thumbnails.output(variant, thumbPath).addArguments("-map", "[" + outputs.get(j++) + "]"));
+      }
+    }
+  }
+
+  /**
+   * Splits a link into {@code count} copies, or passes it through if only one is needed.
+   *
+   * @return The links to read the copies from.
+   */
+  private static List<String> split(List<FilterChain> chains, String input, String prefix, int count) {
+    if (count == 1) {
+      return List.of(input);
+    }
+
+    var filter = Filter.fromInputLink(input)
+      .setName("split")
+      .addArgument(String.valueOf(count));
+    var ret = new LinkedList<String>();
+    for (int i = 0; i < count; i++) {
+      filter.addOutputLink(prefix + i);
+      ret.add(prefix + i);
+    }
+    chains.add(FilterChain.of(filter));
+
+    return ret;
+  }
+}
@@ -1,11 +1,7 @@
 package com.mtinge.yuugure.services.processor;
 
-import com.github.kokorin.jaffree.StreamType;
-import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
-import com.github.kokorin.jaffree.ffmpeg.Filter;
-import com.github.kokorin.jaffree.ffmpeg.UrlInput;
-import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
 import com.mtinge.yuugure.App;
+import com.mtinge.yuugure.core.Config;
 import com.mtinge.yuugure.core.TagManager.TagCategory;
 import com.mtinge.yuugure.core.ThreadFactories;
 import com.mtinge.yuugure.data.processor.MediaMeta;
@@ -96,6 +92,20 @@ public class MediaProcessor implements IService {
   }
 
   public static ProcessorResult Process(ProcessableUpload dequeued, Path fullPath, Path thumbPath) {
+    return Process(dequeued, fullPath, thumbPath, null);
+  }
+
+  /**
+   * Processes an upload, rendering its thumbnail in every configured size and format.
+   *
+   * @param dequeued The upload to process.
+   * @param fullPath The upload's file.
+   * @param thumbPath Where to write the base thumbnail, variants are written next to it.
+   * @param thumbnails The thumbnail variants to render, or null to only render the base thumbnail.
+   *
+   * @return The processing result, or null if nothing was dequeued.
+   */
+  public static ProcessorResult Process(ProcessableUpload dequeued, Path fullPath, Path thumbPath, @Nullable Config.Upload.Thumbnails thumbnails) {
     if (dequeued == null) return null;
 
     logger.debug("Beginning processing of {}", dequeued.media.sha256);
@@ -104,6 +114,19 @@ public class MediaProcessor implements IService {
     var result = new ProcessorResult(dequeued);
     var isJpeg = dequeued.media.mime.toLowerCase().endsWith("jpeg");
 
+    // still images skip ffmpeg entirely when the JVM can read them
+    if (ImagePass.handles(dequeued.media.mime)) {
+      var image = ImagePass.run(fullPath, thumbPath, thumbnails);
+      if (image != null) {
+        var meta = new MediaMeta(dequeued.media.id)
+          .width(image.width)
+          .height(image.height)
+          .fileSize(image.fileSize);
+
+        return result.meta(meta).tags(autoTags(meta)).phash(hash(thumbPath)).success(true);
+      }
+    }
+
     // ffprobe has a hard time with the jpeg so we'll set the format specifically if needed
     var streams = ProbeStreams.forPath(fullPath, isJpeg ? "mjpeg" : null);
     if (streams != null) {
@@ -118,51 +141,19 @@ public class MediaProcessor implements IService {
           .hasAudio(false) // audio detection is handled with an ffmpeg filter later.
           .fileSize(streams.format.getSize());
 
-        if (streams.audio != null) {
-          var volumeData = VolumeData.detect(fullPath);
-          if (volumeData != null) {
-            meta.hasAudio(volumeData.meanVolume > -80 || volumeData.maxVolume > -80);
-          } // else: invalid audio stream, no detectable volume
-        }
+        // the thumbnail and volume detection share a single ffmpeg run
+        var seek = meta.video() ? (long) Math.floor(meta.videoDuration() * 1000 / 8) : 0L;
+        var variants = Thumbnails.variants(thumbnails, meta.width(), meta.height());
+        var pass = MediaPass.run(fullPath, thumbPath, variants, seek, isJpeg ? "mjpeg" : null, streams.audio != null);
+        if (pass != null && pass.volume != null) {
+          meta.hasAudio(pass.volume.meanVolume > -80 || pass.volume.maxVolume > -80);
+        } // else: no audio stream, or an invalid one with no detectable volume
 
         // ensure we attach our metadata
         result.meta(meta);
 
-        // Create thumbnail
-        if (createThumbnail(fullPath, thumbPath, meta.video() ? ((long) Math.floor(meta.videoDuration() / 8)) : 0, isJpeg ? "mjpeg" : null)) {
-          // TODO automated tagging should happen here when tagging is implemented.
-          var tags = new LinkedList<String>();
-
-          // Automated Tagging
-          //  Meta
-          if (meta.video()) {
-            tags.add("meta:video");
-          }
-          if (meta.hasAudio()) {
-            tags.add("meta:has_audio");
-          }
-
-          //  Filesize
-          var fs = FileSize.get(streams.format.getSize().intValue(), meta.video());
-          if (fs != null) {
-            tags.add(TagCategory.FILESIZE.getName() + ":" + fs);
-          }
-
-          //  Dimensions
-          var dm = FileDimension.get(meta.width() * meta.height());
-          if (dm != null) {
-            tags.add(TagCategory.DIMENSIONS.getName() + ":" + dm);
-          }
-
-          //  Length
-          if (meta.video()) {
-            var fl = FileLengths.get(meta.videoDuration());
-            if (fl != null) {
-              tags.add(TagCategory.LENGTH.getName() + ":" + fl);
-            }
-          }
-
-          return result.tags(tags).success(true);
+        if (pass != null) {
+          return result.tags(autoTags(meta)).phash(hash(thumbPath)).success(true);
         } else {
           // else: failed to create thumbnail
           return result.success(false).message("Thumbnail generation failed.");
@@ -177,35 +168,48 @@ public class MediaProcessor implements IService {
     }
   }
 
-  public static boolean createThumbnail(Path fullPath, Path thumbPath, @Nullable Long seek, @Nullable String format) {
-    if (seek == null) {
-      seek = 0L;
+  /**
+   * Hashes the base thumbnail rather than the source so every path hashes the same kind of frame,
+   * and so we never decode a full size image twice.
+   */
+  private static String hash(Path thumbPath) {
+    return Optional.ofNullable(PerceptualHash.of(thumbPath)).orElse("");
+  }
+
+  private static LinkedList<String> autoTags(MediaMeta meta) {
+    // TODO automated tagging should happen here when tagging is implemented.
+    var tags = new LinkedList<String>();
+
+    // Automated Tagging
+    //  Meta
+    if (meta.video()) {
+      tags.add("meta:video");
+    }
+    if (meta.hasAudio()) {
+      tags.add("meta:has_audio");
     }
 
-    try {
-      var input = UrlInput.fromPath(fullPath).setPosition(seek);
-      var ffmpeg = FFmpeg.atPath()
-        .addInput(input)
-        .setFilter(StreamType.VIDEO, Filter.withName("scale")
-          .addArgumentEscaped("'if(gt(a,200/200),200,-1)':'if(gt(a,200/200),-1,200)'")
-        )
-        .addArguments("-sws_flags", "bicubic+full_chroma_inp")
-        .setOverwriteOutput(true)
-        .addOutput(
-          UrlOutput.toPath(thumbPath)
-            .setFrameCount(StreamType.VIDEO, 1L)
-            .setFormat("apng")
-        );
-      if (format != null) {
-        input.setFormat(format);
-      }
-      ffmpeg.execute();
+    //  Filesize
+    var fs = FileSize.get((int) meta.fileSize(), meta.video());
+    if (fs != null) {
+      tags.add(TagCategory.FILESIZE.getName() + ":" + fs);
+    }
 
-      return true;
-    } catch (Exception e) {
-      logger.error("Failed to create thumbnail for path {}.", fullPath, e);
-      return false;
+    //  Dimensions
+    var dm = FileDimension.get(meta.width() * meta.height());
+    if (dm != null) {
+      tags.add(TagCategory.DIMENSIONS.getName() + ":" + dm);
     }
+
+    //  Length
+    if (meta.video()) {
+      var fl = FileLengths.get(meta.videoDuration());
+      if (fl != null) {
+        tags.add(TagCategory.LENGTH.getName() + ":" + fl);
+      }
+    }
+
+    return tags;
   }
 
   private static final class Worker implements Runnable, Closeable {
@@ -263,7 +267,7 @@ public class MediaProcessor implements IService {
               logger.info("Received job for upload {}.", parsed.upload.id);
               var fullPath = Path.of(App.config().upload.finalDir, parsed.media.sha256 + ".full");
               var thumbPath = Path.of(App.config().upload.finalDir, parsed.media.sha256 + ".thumb");
-              var result = MediaProcessor.Process(parsed, fullPath, thumbPath);
+              var result = MediaProcessor.Process(parsed, fullPath, thumbPath, App.config().upload.thumbnails);
 
               var bob = new BasicOutputBuffer();
               var writer = new BsonBinaryWriter(bob);
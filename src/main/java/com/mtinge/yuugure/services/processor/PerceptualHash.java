@@ -0,0 +1,113 @@
+package com.mtinge.yuugure.services.processor;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+/**
+ * <p>Computes 64-bit difference hashes (dHash). The image is shrunk to 9x8 grayscale pixels and
+ * each bit records whether a pixel is brighter than its right neighbour, so the hash survives
+ * rescaling, recompression, and small color changes. Similar images are a small Hamming distance
+ * apart.</p>
+ * <p>Hashes are stored as 16 hex characters in <code>media.phash</code>.</p>
+ */
+public final class PerceptualHash {
+  private static final Logger logger = LoggerFactory.getLogger(PerceptualHash.class);
+  private static final int WIDTH = 9;
+  private static final int HEIGHT = 8;
+
+  private PerceptualHash() {
+    //
+  }
+
+  public static long of(BufferedImage image) {
+    // shrink in two steps, a single bilinear step from a large image only samples a few pixels
+    var source = image;
+    if (image.getWidth() > WIDTH * 4 || image.getHeight() > HEIGHT * 4) {
+      source = resize(image, WIDTH * 4, HEIGHT * 4);
+    }
+    var small = resize(source, WIDTH, HEIGHT);
+
+    long hash = 0;
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH - 1; x++) {
+        hash <<= 1;
+        if (luma(small.getRGB(x, y)) > luma(small.getRGB(x + 1, y))) {
+          hash |= 1;
+        }
+      }
+    }
+
+    return hash;
+  }
+
+  /**
+   * @param path The image to hash, typically the base thumbnail.
+   *
+   * @return The image's hash, or null if it couldn't be read.
+   */
+  @Nullable
+  public static String of(Path path) {
+    try {
+      var image = ImageIO.read(path.toFile());
+      if (image == null) {
+        return null;
+      }
+
+      return toHex(of(image));
+    } catch (Exception e) {
+      logger.error("Failed to hash image {}.", path, e);
+      return null;
+    }
+  }
+
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  public static String toHex(long hash) {
+    return String.format("%016x", hash);
+  }
+
+  /**
+   * @return The parsed hash, or null if the input isn't a hash we wrote.
+   */
+  @Nullable
+  public static Long fromHex(@Nullable String hex) {
+    if (hex == null || hex.length() != 16) {
+      return null;
+    }
+
+    try {
+      return Long.parseUnsignedLong(hex, 16);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static BufferedImage resize(BufferedImage image, int width, int height) {
+    var ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    var g = ret.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+
+    return ret;
+  }
+
+  private static int luma(int rgb) {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+
+    return (r * 299 + g * 587 + b * 114) / 1000;
+  }
+}
@@ -22,10 +22,9 @@ public class ProbeStreams {
 
   public static ProbeStreams forPath(Path path, @Nullable String format) {
     try {
+      // don't count frames, that decodes the entire file and we only need what the headers say
       var ffprobe = FFprobe.atPath()
-        .setShowStreams(true)
         .setLogLevel(LogLevel.INFO)
-        .setCountFrames(true)
         .setShowStreams(true)
         .setShowFormat(true)
         .setInput(path);
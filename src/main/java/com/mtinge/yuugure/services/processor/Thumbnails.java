@@ -0,0 +1,205 @@
+package com.mtinge.yuugure.services.processor;
+
+import com.github.kokorin.jaffree.StreamType;
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.UrlInput;
+import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
+import com.mtinge.yuugure.core.Config;
+import lombok.AllArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * <p>The sizes and formats a thumbnail is rendered in. Every upload has a 200px PNG stored at its
+ * <code>.thumb</code> path, which is all uploads processed before variants existed have. Other
+ * variants sit next to it as <code>.thumb.{size}.{extension}</code>.</p>
+ * <p>PNG is always rendered at every size so there's a fallback for clients that can't take the
+ * smaller formats.</p>
+ */
+public final class Thumbnails {
+  private static final Logger logger = LoggerFactory.getLogger(Thumbnails.class);
+  public static final int BASE_SIZE = 200;
+
+  public enum Format {
+    PNG("png", "image/png", "apng", null),
+    WEBP("webp", "image/webp", "webp", "libwebp"),
+    AVIF("avif", "image/avif", "avif", "libaom-av1");
+
+    public final String extension;
+    public final String mime;
+    private final String muxer;
+    @Nullable
+    private final String codec;
+
+    Format(String extension, String mime, String muxer, @Nullable String codec) {
+      this.extension = extension;
+      this.mime = mime;
+      this.muxer = muxer;
+      this.codec = codec;
+    }
+
+    @Nullable
+    public static Format of(String name) {
+      for (var format : values()) {
+        if (format.extension.equalsIgnoreCase(name)) {
+          return format;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  @AllArgsConstructor
+  public static final class Variant {
+    public final int size;
+    public final Format format;
+
+    public boolean isBase() {
+      return size == BASE_SIZE && format == Format.PNG;
+    }
+
+    /**
+     * @param thumbPath The upload's base <code>.thumb</code> path.
+     *
+     * @return Where this variant is stored.
+     */
+    public Path path(Path thumbPath) {
+      return isBase() ? thumbPath : thumbPath.resolveSibling(thumbPath.getFileName() + "." + size + "." + format.extension);
+    }
+
+    @Override
+    public String toString() {
+      return size + "." + format.extension;
+    }
+  }
+
+  private Thumbnails() {
+    //
+  }
+
+  /**
+   * @param config The configured variants, or null to only use the base thumbnail.
+   *
+   * @return Every configured size in ascending order, the base size included.
+   */
+  public static List<Integer> sizes(@Nullable Config.Upload.Thumbnails config) {
+    var ret = new TreeSet<Integer>();
+    ret.add(BASE_SIZE);
+    if (config != null) {
+      for (var size : config.sizes) {
+        if (size != null && size > 0) {
+          ret.add(size);
+        }
+      }
+    }
+
+    return List.copyOf(ret);
+  }
+
+  /**
+   * @param config The configured variants, or null to only use the base thumbnail.
+   *
+   * @return Every configured format in order of preference, ending with PNG.
+   */
+  public static List<Format> formats(@Nullable Config.Upload.Thumbnails config) {
+    var ret = new LinkedList<Format>();
+    if (config != null) {
+      for (var name : config.formats) {
+        var format = Format.of(name);
+        if (format == null) {
+          logger.warn("Ignoring unknown thumbnail format \"{}\".", name);
+        } else if (format != Format.PNG && !ret.contains(format)) {
+          ret.add(format);
+        }
+      }
+    }
+    ret.add(Format.PNG);
+
+    return ret;
+  }
+
+  /**
+   * Lists the variants to render for a source. Sizes larger than the source are skipped, they'd
+   * only be upscaled copies of the source, but the base thumbnail is always rendered.
+   *
+   * @param config The configured variants, or null to only render the base thumbnail.
+   * @param width The source's width.
+   * @param height The source's height.
+   *
+   * @return The variants to render, grouped by size in ascending order.
+   */
+  public static List<Variant> variants(@Nullable Config.Upload.Thumbnails config, int width, int height) {
+    var formats = formats(config);
+    var ret = new LinkedList<Variant>();
+    for (var size : sizes(config)) {
+      if (size != BASE_SIZE && size > Math.max(width, height)) continue;
+
+      for (var format : formats) {
+        ret.add(new Variant(size, format));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * @param variant The variant being written.
+   * @param thumbPath The upload's base <code>.thumb</code> path.
+   *
+   * @return A single frame output for the variant, the caller still has to map a stream to it.
+   */
+  static UrlOutput output(Variant variant, Path thumbPath) {
+    var output = UrlOutput.toPath(variant.path(thumbPath))
+      .setFrameCount(StreamType.VIDEO, 1L)
+      .setFormat(variant.format.muxer);
+    if (variant.format.codec != null) {
+      output.setCodec(StreamType.VIDEO, variant.format.codec);
+    }
+    if (variant.format == Format.AVIF) {
+      output.addArguments("-still-picture", "1").addArguments("-cpu-used", "6");
+    }
+
+    return output;
+  }
+
+  /**
+   * Encodes non-PNG variants from the PNG variants of the same size in a single ffmpeg run. Used
+   * when the PNGs were rendered in-process.
+   *
+   * @param thumbPath The upload's base <code>.thumb</code> path.
+   * @param variants The variants to encode, PNG variants are skipped.
+   *
+   * @return Whether every variant was written.
+   */
+  static boolean encode(Path thumbPath, List<Variant> variants) {
+    var ffmpeg = FFmpeg.atPath().setOverwriteOutput(true);
+
+    int inputs = 0;
+    for (var variant : variants) {
+      if (variant.format == Format.PNG) continue;
+
+      ffmpeg
+        .addInput(UrlInput.fromPath(new Variant(variant.size, Format.PNG).path(thumbPath)))
+        .addOutput(output(variant, thumbPath).addArguments("-map", inputs + ":v:0"));
+      inputs++;
+    }
+    if (inputs == 0) {
+      return true;
+    }
+
+    try {
+      ffmpeg.execute();
+      return true;
+    } catch (Exception e) {
+      logger.error("Failed to encode thumbnail variants for path {}.", thumbPath, e);
+      return false;
+    }
+  }
+}
@@ -1,17 +1,10 @@
 package com.mtinge.yuugure.services.processor;
 
-import com.github.kokorin.jaffree.StreamType;
-import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
-import com.github.kokorin.jaffree.ffmpeg.Filter;
-import com.github.kokorin.jaffree.ffmpeg.NullOutput;
-import com.github.kokorin.jaffree.ffmpeg.UrlInput;
 import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 import java.util.stream.Collectors;
 
 @AllArgsConstructor
@@ -21,29 +14,21 @@ public class VolumeData {
   public final double meanVolume;
   public final double maxVolume;
 
-  public static VolumeData detect(Path fullPath) {
+  /**
+   * Reads the volume from <code>volumedetect</code>'s log output.
+   *
+   * @param lines The lines logged by the filter, each prefixed with <code>[Parsed_volumedetect</code>.
+   *
+   * @return The detected volume. Values that couldn't be read are left at -91dB, below anything
+   *   volumedetect reports for real audio.
+   */
+  public static VolumeData parse(List<String> lines) {
     try {
-      var lines = new LinkedList<String>();
-      FFmpeg.atPath()
-        .addInput(
-          UrlInput.fromPath(fullPath)
-        )
-        .setFilter(StreamType.AUDIO, Filter.withName("volumedetect"))
-        .addOutput(
-          new NullOutput(false)
-            .setDuration(60, TimeUnit.SECONDS)
-        )
-        .setOutputListener(line -> {
-          if (line.startsWith("[Parsed_volumedetect")) {
-            lines.add(line);
-          }
-        })
-        .execute();
-
       // collect output into KVPs for processing
       var vars = lines.stream()
         .map(line -> (line.substring(line.lastIndexOf(']') + 1)).split(":"))
-        .collect(Collectors.toMap(strings -> strings[0].trim(), strings -> strings[1].trim()));
+        .filter(strings -> strings.length == 2)
+        .collect(Collectors.toMap(strings -> strings[0].trim(), strings -> strings[1].trim(), (a, b) -> b));
 
       double meanVolume = -91L;
       double maxVolume = -91L;
@@ -58,7 +43,7 @@ public class VolumeData {
 
       return new VolumeData(meanVolume, maxVolume);
     } catch (Exception e) {
-      logger.error("Failed to extract VolumeData for path {}.", fullPath, e);
+      logger.error("Failed to parse VolumeData.", e);
     }
     return null;
   }
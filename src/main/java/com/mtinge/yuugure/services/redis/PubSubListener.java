@@ -0,0 +1,23 @@
+package com.mtinge.yuugure.services.redis;
+
+/**
+ * A listener for a Redis pub/sub channel.
+ *
+ * @see Redis#subscribe(String, PubSubListener)
+ */
+public interface PubSubListener {
+  /**
+   * Called for every message published to the channel.
+   *
+   * @param message The published message.
+   */
+  void onMessage(String message);
+
+  /**
+   * Called whenever the channel is (re)subscribed. Anything published while we were disconnected
+   * is lost, so this is the place to catch up.
+   */
+  default void onSubscribed() {
+    // stub
+  }
+}
@@ -7,19 +7,36 @@ import com.mtinge.yuugure.data.postgres.DBAccount;
 import com.mtinge.yuugure.services.IService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.params.SetParams;
 
 import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Redis implements IService {
   private static final Logger logger = LoggerFactory.getLogger(Redis.class);
+  private static final Duration MAX_RESUBSCRIBE_BACKOFF = Duration.ofSeconds(30);
+
+  private final Map<String, List<PubSubListener>> listeners = new ConcurrentHashMap<>();
+  private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
   private JedisPool jedisPool;
+  private URI uri;
+  private Thread subscriberThread;
+  private volatile JedisPubSub pubSub;
 
   @Override
   public void init() throws Exception {
-    this.jedisPool = new JedisPool(new URI(App.config().redis.url));
+    this.uri = new URI(App.config().redis.url);
+    this.jedisPool = new JedisPool(uri);
+    this.subscriberThread = new Thread(this::subscribeLoop, "yuugure-redis-subscriber");
+    this.subscriberThread.setDaemon(true);
   }
 
   @Override
@@ -27,9 +44,107 @@ public class Redis implements IService {
     try (var res = this.jedisPool.getResource()) {
       res.ping();
     }
+    if (!listeners.isEmpty()) {
+      subscriberThread.start();
+    }
     logger.info("Redis started");
   }
 
+  @Override
+  public void stop() throws Exception {
+    shutdownRequested.set(true);
+    var current = pubSub;
+    if (current != null && current.isSubscribed()) {
+      current.unsubscribe();
+    }
+    if (subscriberThread.isAlive()) {
+      subscriberThread.join();
+    }
+    jedisPool.close();
+  }
+
+  /**
+   * Registers a listener for a pub/sub channel. Listeners must be registered before the service is
+   * started, the subscriber connection is opened once for every registered channel.
+   *
+   * @param channel The channel to subscribe to.
+   * @param listener The listener to notify.
+   */
+  public void subscribe(String channel, PubSubListener listener) {
+    listeners.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(listener);
+  }
+
+  /**
+   * Publishes a message to a pub/sub channel.
+   *
+   * @param channel The channel to publish to.
+   * @param message The message to publish.
+   */
+  public void publish(String channel, String message) {
+    try (var rsrc = jedisPool.getResource()) {
+      rsrc.publish(channel, message);
+    }
+  }
+
+  /**
+   * Holds a dedicated connection subscribed to every registered channel, reconnecting with a capped
+   * backoff whenever the connection drops. Messages published while we're disconnected are lost,
+   * listeners are told when a (re)subscription completes so they can catch up from another source.
+   */
+  private void subscribeLoop() {
+    var channels = listeners.keySet().toArray(String[]::new);
+    var backoff = Duration.ofSeconds(1);
+
+    while (!shutdownRequested.get()) {
+      try (var jedis = new Jedis(uri)) {
+        pubSub = new JedisPubSub() {
+          @Override
+          public void onMessage(String channel, String message) {
+            for (var listener : listeners.getOrDefault(channel, List.of())) {
+              try {
+                listener.onMessage(message);
+              } catch (Exception e) {
+                logger.error("Pub/sub listener for channel {} failed to handle a message.", channel, e);
+              }
+            }
+          }
+
+          @Override
+          public void onSubscribe(String channel, int subscribedChannels) {
+            logger.info("Subscribed to channel {}.", channel);
+            for (var listener : listeners.getOrDefault(channel, List.of())) {
+              try {
+                listener.onSubscribed();
+              } catch (Exception e) {
+                logger.error("Pub/sub listener for channel {} failed to handle a subscription.", channel, e);
+              }
+            }
+          }
+        };
+
+        jedis.subscribe(pubSub, channels); // blocks until unsubscribed or disconnected
+      } catch (Exception e) {
+        if (shutdownRequested.get()) break;
+        if (pubSub != null && pubSub.getSubscribedChannels() > 0) {
+          // we were healthy before this drop, start the backoff over
+          backoff = Duration.ofSeconds(1);
+        }
+        logger.warn("Lost the pub/sub connection, resubscribing in {}.", backoff, e);
+        try {
+          Thread.sleep(backoff.toMillis());
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+
+        backoff = backoff.multipliedBy(2);
+        if (backoff.compareTo(MAX_RESUBSCRIBE_BACKOFF) > 0) {
+          backoff = MAX_RESUBSCRIBE_BACKOFF;
+        }
+      }
+    }
+  }
+
   public String getConfirmToken(DBAccount account) {
     try (var rsrc = jedisPool.getResource()) {
       var token = Utils.token(16);
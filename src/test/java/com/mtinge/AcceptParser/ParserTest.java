@@ -59,4 +59,14 @@ public class ParserTest {
     Assertions.assertNotNull(match);
     Assertions.assertEquals(searchA, match.getMime());
   }
+
+  @Test
+  public void findsExactMatchesOnly() {
+    var result = Parser.parse("image/avif,image/webp,image/*,*/*;q=0.8");
+
+    Assertions.assertTrue(result.hasExactMatch(Mime.parse("image/webp")));
+    Assertions.assertTrue(result.hasExactMatch(Mime.parse("image/avif")));
+    Assertions.assertFalse(result.hasExactMatch(Mime.parse("image/png")));
+    Assertions.assertTrue(result.hasMatch(Mime.parse("image/png")));
+  }
 }
@@ -0,0 +1,44 @@
+package com.mtinge.IntCollections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntListTest {
+  @Test
+  @DisplayName("Grows past its initial capacity and keeps insertion order")
+  public void grows() {
+    var list = new IntList(0);
+    for (int i = 0; i < 100; i++) {
+      list.add(i * 3);
+    }
+
+    assertEquals(100, list.size());
+    assertEquals(0, list.get(0));
+    assertEquals(297, list.get(99));
+    assertTrue(list.contains(150));
+    assertFalse(list.contains(151));
+  }
+
+  @Test
+  @DisplayName("Rejects out of bounds access")
+  public void bounds() {
+    var list = IntList.of(1, 2, 3);
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(3));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(-1));
+  }
+
+  @Test
+  @DisplayName("Copies and compares by content")
+  public void equality() {
+    var copied = IntList.copyOf(List.of(4, 5, 6));
+    assertEquals(IntList.of(4, 5, 6), copied);
+    assertEquals(IntList.of(4, 5, 6).hashCode(), copied.hashCode());
+    assertNotEquals(IntList.of(4, 5), copied);
+    assertArrayEquals(new int[]{4, 5, 6}, copied.toArray());
+    assertEquals(15, copied.stream().sum());
+  }
+}
@@ -0,0 +1,59 @@
+package com.mtinge.IntCollections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntSetMapTest {
+  @Test
+  @DisplayName("Builds sorted, duplicate-free sets")
+  public void builder() {
+    var map = IntSetMap.builder()
+      .put(1, 30).put(1, 10).put(1, 20).put(1, 10)
+      .put(2, 5)
+      .build();
+
+    assertEquals(2, map.size());
+    assertArrayEquals(new int[]{10, 20, 30}, map.get(1));
+    assertArrayEquals(new int[]{5}, map.get(2));
+    assertArrayEquals(new int[0], map.get(3));
+    assertFalse(map.containsKey(3));
+  }
+
+  @Test
+  @DisplayName("Writes return a new map and leave the original untouched")
+  public void copyOnWrite() {
+    var original = IntSetMap.empty().with(1, 2);
+    var added = original.with(1, 3).with(7, 8);
+    var removed = added.without(1, 2);
+
+    assertArrayEquals(new int[]{2}, original.get(1));
+    assertFalse(original.containsKey(7));
+    assertArrayEquals(new int[]{2, 3}, added.get(1));
+    assertArrayEquals(new int[]{3}, removed.get(1));
+    assertSame(added, added.with(1, 3));
+    assertSame(added, added.without(1, 99));
+  }
+
+  @Test
+  @DisplayName("Removing a key's last value drops the key without losing its neighbours")
+  public void removesKeys() {
+    var map = IntSetMap.empty();
+    for (int i = 0; i < 1000; i++) {
+      map = map.with(i, i + 1);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      map = map.without(i, i + 1);
+    }
+
+    assertEquals(500, map.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i % 2 == 1, map.contains(i, i + 1));
+    }
+
+    var sum = new int[1];
+    map.forEach(999, v -> sum[0] += v);
+    assertEquals(1000, sum[0]);
+  }
+}
@@ -2,6 +2,7 @@ package com.mtinge.TagTokenizer;
 
 import com.mtinge.TagTokenizer.lexer.LexToken;
 import com.mtinge.TagTokenizer.lexer.Lexer;
+import com.mtinge.TagTokenizer.tokenizer.RangeTerm;
 import com.mtinge.TagTokenizer.tokenizer.TermModifier;
 import com.mtinge.TagTokenizer.tokenizer.Tokenizer;
 import com.mtinge.TagTokenizer.tokenizer.TagToken;
@@ -274,4 +275,56 @@ public class TokenizerTest {
     );
   }
 
+  @Test
+  void canonicalizesOrderAndCase() throws SyntaxError {
+    var a = TagTokenizer.canonicalize(TagTokenizer.parse("abc -def (ghi ~jkl)"));
+    var b = TagTokenizer.canonicalize(TagTokenizer.parse("(~JKL ghi) -def ABC"));
+    assertEquals(a, b);
+    assertNotEquals(a, TagTokenizer.canonicalize(TagTokenizer.parse("abc def (ghi ~jkl)")));
+  }
+
+  @Test
+  void handlesRanges() throws SyntaxError {
+    var tokens = Tokenizer.tokenize(Lexer.lex("width:>1920 -duration:10..60 filesize:<5mb height:<=1080"));
+    assertEquals(4, tokens.size());
+
+    var width = tokens.removeFirst();
+    assertEquals(Type.RANGE, width.type);
+    assertNotNull(width.range);
+    assertEquals(RangeTerm.Field.WIDTH, width.range.field);
+    assertEquals(1920d, width.range.from);
+    assertFalse(width.range.includeFrom);
+    assertNull(width.range.to);
+
+    var duration = tokens.removeFirst();
+    assertEquals(Type.RANGE, duration.type);
+    assertEquals(TermModifier.NOT, duration.modifier);
+    assertNotNull(duration.range);
+    assertEquals(10d, duration.range.from);
+    assertEquals(60d, duration.range.to);
+    assertTrue(duration.range.includeFrom && duration.range.includeTo);
+
+    var filesize = tokens.removeFirst();
+    assertNotNull(filesize.range);
+    assertEquals(5d * 1024 * 1024, filesize.range.to);
+    assertFalse(filesize.range.includeTo);
+
+    var height = tokens.removeFirst();
+    assertEquals("height:<=1080", height.value);
+  }
+
+  @Test
+  void leavesTagsThatLookLikeRanges() throws SyntaxError {
+    var tokens = Tokenizer.tokenize(Lexer.lex("filesize:large width"));
+    assertEquals(Type.TERM, tokens.removeFirst().type);
+    assertEquals(Type.TERM, tokens.removeFirst().type);
+  }
+
+  @Test
+  void throwsForInvalidRanges() {
+    assertThrows(SyntaxError.class, () -> Tokenizer.tokenize(Lexer.lex("width:>abc")));
+    assertThrows(SyntaxError.class, () -> Tokenizer.tokenize(Lexer.lex("filesize:<5parsecs")));
+    assertThrows(SyntaxError.class, () -> Tokenizer.tokenize(Lexer.lex("duration:60..10")));
+  }
+
 }
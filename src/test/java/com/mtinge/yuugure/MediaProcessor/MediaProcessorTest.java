@@ -33,7 +33,7 @@ public class MediaProcessorTest {
     var fullPath = file.toPath();
     var thumbPath = Path.of("./volatile.thumb");
 
-    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false);
+    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false, 0);
     var _upload = new DBUpload(0, 0, 0, 0, Timestamp.from(Instant.now()), 0L);
     var _media = new DBMedia(0, "", "", "", "image/png");
     var processable = new ProcessableUpload(_queue, _upload, _media);
@@ -53,6 +53,8 @@ public class MediaProcessorTest {
     assertThat(meta.width()).isEqualTo(512);
     assertThat(meta.height()).isEqualTo(328);
     assertThat(meta.fileSize()).isEqualTo(3655);
+
+    assertThat(result.phash()).hasSize(16);
   }
 
   @Test
@@ -64,7 +66,7 @@ public class MediaProcessorTest {
     var fullPath = file.toPath();
     var thumbPath = Path.of("./volatile.thumb");
 
-    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false);
+    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false, 0);
     var _upload = new DBUpload(0, 0, 0, 0, Timestamp.from(Instant.now()), 0L);
     var _media = new DBMedia(0, "", "", "", "video/mp4");
     var processable = new ProcessableUpload(_queue, _upload, _media);
@@ -95,7 +97,7 @@ public class MediaProcessorTest {
     var fullPath = file.toPath();
     var thumbPath = Path.of("./volatile.thumb");
 
-    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false);
+    var _queue = new DBProcessingQueue(0, 0, Timestamp.from(Instant.now()), true, false, null, false, 0);
     var _upload = new DBUpload(0, 0, 0, 0, Timestamp.from(Instant.now()), 0L);
     var _media = new DBMedia(0, "", "", "", "video/mp4");
     var processable = new ProcessableUpload(_queue, _upload, _media);
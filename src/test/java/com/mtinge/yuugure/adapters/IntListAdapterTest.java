@@ -0,0 +1,35 @@
+package com.mtinge.yuugure.adapters;
+
+import com.mtinge.IntCollections.IntList;
+import com.mtinge.yuugure.core.adapters.IntListAdapter;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class IntListAdapterTest {
+  private final JsonAdapter<IntList> ada;
+
+  public IntListAdapterTest() {
+    this.ada = new Moshi.Builder()
+      .add(IntList.class, new IntListAdapter())
+      .build()
+      .adapter(IntList.class);
+  }
+
+  @Test
+  public void toJson() {
+    assertEquals("[3,1,2]", ada.toJson(IntList.of(3, 1, 2)));
+    assertEquals("[]", ada.toJson(new IntList(0)));
+  }
+
+  @Test
+  public void fromJson() throws IOException {
+    assertEquals(IntList.of(3, 1, 2), ada.fromJson("[3,1,2]"));
+    assertNull(ada.fromJson("null"));
+  }
+}
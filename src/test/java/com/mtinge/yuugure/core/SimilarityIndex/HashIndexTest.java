@@ -0,0 +1,75 @@
+package com.mtinge.yuugure.core.SimilarityIndex;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashIndexTest {
+  private static List<Integer> media(List<SimilarMedia> found) {
+    return found.stream().map(m -> m.media).collect(Collectors.toList());
+  }
+
+  @Test
+  @DisplayName("Finds hashes within the distance, closest first")
+  public void within() {
+    var index = new HashIndex();
+    long base = 0x0123456789abcdefL;
+    index.put(1, base);
+    index.put(2, base ^ 0b1L);                  // 1 bit
+    index.put(3, base ^ 0b1011L << 20);          // 3 bits
+    index.put(4, base ^ 0xFFL << 40 ^ 0b11L);    // 10 bits, spread over two chunks
+    index.put(5, ~base);                         // 64 bits
+
+    assertEquals(List.of(1, 2, 3), media(index.within(base, 3)));
+    assertEquals(List.of(1, 2, 3, 4), media(index.within(base, 10)));
+    assertEquals(List.of(1), media(index.within(base, 0)));
+    assertEquals(10, index.within(base, 10).get(3).distance);
+  }
+
+  @Test
+  @DisplayName("Matches a linear scan")
+  public void matchesScan() {
+    var random = new Random(42);
+    var index = new HashIndex();
+    var hashes = new long[5000];
+    for (int i = 0; i < hashes.length; i++) {
+      // cluster around a few hashes so there's something to find
+      hashes[i] = i % 10 == 0 ? random.nextLong() : hashes[i - i % 10] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+      index.put(i, hashes[i]);
+    }
+
+    for (int q = 0; q < 50; q++) {
+      long query = hashes[random.nextInt(hashes.length)] ^ (1L << random.nextInt(64));
+      for (int distance : new int[]{0, 3, 7, 12}) {
+        int expected = 0;
+        for (var hash : hashes) {
+          if (Long.bitCount(hash ^ query) <= distance) expected++;
+        }
+        assertEquals(expected, index.within(query, distance).size());
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Removed and repeated hashes are handled")
+  public void removeAndRepeat() {
+    var index = new HashIndex();
+    index.put(1, 42L);
+    index.put(1, 42L);
+    assertEquals(1, index.size());
+    assertEquals(List.of(1), media(index.within(42L, 0)));
+
+    // a reprocess replaces the old hash
+    index.remove(1, 42L);
+    index.put(1, 43L);
+    assertEquals(1, index.size());
+    assertEquals(List.of(1), media(index.within(43L, 0)));
+    assertTrue(index.within(42L, 0).isEmpty());
+  }
+}
@@ -0,0 +1,68 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TagClosureTest {
+  /**
+   * 1 -> 2 -> 3 -> 4, 5 -> 6
+   */
+  private static TagClosure build() {
+    var parents = new HashMap<Integer, Integer>();
+    parents.put(2, 1);
+    parents.put(3, 2);
+    parents.put(4, 3);
+    parents.put(6, 5);
+
+    return TagClosure.of(parents);
+  }
+
+  @Test
+  @DisplayName("Descendants include every level below a tag")
+  public void transitive() {
+    var closure = build();
+    assertArrayEquals(new int[]{2, 3, 4}, closure.descendants.get(1));
+    assertArrayEquals(new int[]{4}, closure.descendants.get(3));
+    assertArrayEquals(new int[]{1, 2, 3}, closure.ancestors.get(4));
+    assertFalse(closure.descendants.containsKey(4));
+  }
+
+  @Test
+  @DisplayName("Re-parenting moves the whole subtree")
+  public void reparent() {
+    var closure = build().reparent(3, 5);
+    assertArrayEquals(new int[]{2}, closure.descendants.get(1));
+    assertArrayEquals(new int[]{3, 4, 6}, closure.descendants.get(5));
+    assertArrayEquals(new int[]{3, 5}, closure.ancestors.get(4));
+
+    var detached = closure.reparent(3, null);
+    assertArrayEquals(new int[]{6}, detached.descendants.get(5));
+    assertArrayEquals(new int[]{3}, detached.ancestors.get(4));
+    assertFalse(detached.ancestors.containsKey(3));
+  }
+
+  @Test
+  @DisplayName("Moves that would create a cycle are detected and ignored")
+  public void cycles() {
+    var closure = build();
+    assertTrue(closure.wouldCycle(1, 4));
+    assertTrue(closure.wouldCycle(2, 2));
+    assertFalse(closure.wouldCycle(4, 1));
+    assertSame(closure, closure.reparent(1, 4));
+  }
+
+  @Test
+  @DisplayName("Removing a tag detaches its children")
+  public void remove() {
+    var closure = build().remove(2);
+    assertFalse(closure.descendants.containsKey(1));
+    assertFalse(closure.descendants.containsKey(2));
+    assertArrayEquals(new int[]{4}, closure.descendants.get(3));
+    assertArrayEquals(new int[]{3}, closure.ancestors.get(4));
+    assertFalse(closure.ancestors.containsKey(3));
+  }
+}
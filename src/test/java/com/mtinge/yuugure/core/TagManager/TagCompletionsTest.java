@@ -0,0 +1,61 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TagCompletionsTest {
+  private static TagTree build(String... names) {
+    var tree = new TagTree();
+    for (int i = 0; i < names.length; i++) {
+      var tag = new MutableTag(i + 1, null, "userland", names[i], null, null);
+      // later names are used more
+      tag.usage.set(i);
+      tree.put(names[i], List.of(tag));
+    }
+
+    return tree;
+  }
+
+  private static List<String> names(List<MutableTag> tags) {
+    return tags.stream().map(t -> t.name).collect(Collectors.toList());
+  }
+
+  @Test
+  @DisplayName("Precomputed prefixes return the most used tags first")
+  public void precomputed() {
+    var tree = build("red", "red_hair", "red_glasses", "green", "reed");
+    var completions = TagCompletions.empty().rebuild(tree, 2, 2);
+
+    assertEquals(List.of("reed", "red_glasses"), names(completions.complete(tree, "re", 2)));
+    assertEquals(List.of("reed"), names(completions.complete(tree, "re", 1)));
+  }
+
+  @Test
+  @DisplayName("Longer prefixes are ranked from the tree")
+  public void walked() {
+    var tree = build("red", "red_hair", "red_glasses", "green", "reed");
+    var completions = TagCompletions.empty().rebuild(tree, 1, 2);
+
+    assertEquals(List.of("red_glasses", "red_hair", "red"), names(completions.complete(tree, "red", 5)));
+    assertEquals(List.of(), names(completions.complete(tree, "blue", 5)));
+  }
+
+  @Test
+  @DisplayName("Results follow the live tree between rebuilds")
+  public void live() {
+    var tree = build("red", "red_hair", "red_glasses");
+    var completions = TagCompletions.empty().rebuild(tree, 1, 2);
+
+    tree.remove("red_glasses");
+    assertEquals(List.of("red_hair", "red"), names(completions.complete(tree, "r", 2)));
+
+    var added = new MutableTag(10, null, "userland", "rose", null, null);
+    tree.put("rose", List.of(added));
+    assertEquals(List.of("red_hair", "red", "rose"), names(completions.complete(tree, "r", 5)));
+  }
+}
@@ -0,0 +1,101 @@
+package com.mtinge.yuugure.core.TagManager;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TagTreeTest {
+  private static TagTree build(String... names) {
+    var tree = new TagTree();
+    for (int i = 0; i < names.length; i++) {
+      tree.put(names[i], List.of(new MutableTag(i + 1, null, "userland", names[i], null, null)));
+    }
+
+    return tree;
+  }
+
+  private static Set<String> names(Iterable<List<MutableTag>> found) {
+    var ret = new TreeSet<String>();
+    for (var tags : found) {
+      ret.add(tags.get(0).name);
+    }
+
+    return ret;
+  }
+
+  @Test
+  @DisplayName("Finds names by prefix")
+  public void prefix() {
+    var tree = build("red_glasses", "red_hair", "green_glasses", "red");
+    assertEquals(Set.of("red", "red_glasses", "red_hair"), names(tree.startingWith("red")));
+    assertEquals(Set.of(), names(tree.startingWith("blue")));
+  }
+
+  @Test
+  @DisplayName("Finds names by suffix")
+  public void suffix() {
+    var tree = build("red_glasses", "red_hair", "green_glasses", "glasses");
+    assertEquals(Set.of("glasses", "green_glasses", "red_glasses"), names(tree.endingWith("glasses")));
+    assertEquals(Set.of("red_hair"), names(tree.endingWith("hair")));
+  }
+
+  @Test
+  @DisplayName("Finds names by infix")
+  public void infix() {
+    var tree = build("red_glasses", "red_hair", "green_glasses", "sunglasses_on_head");
+    assertEquals(Set.of("green_glasses", "red_glasses", "sunglasses_on_head"), names(tree.containing("glass")));
+    assertEquals(Set.of("red_glasses", "red_hair"), names(tree.containing("d_")));
+    assertEquals(Set.of(), names(tree.containing("blue")));
+  }
+
+  @Test
+  @DisplayName("Removed names are dropped from every index")
+  public void remove() {
+    var tree = build("red_glasses", "green_glasses");
+    tree.remove("red_glasses");
+
+    assertNull(tree.get("red_glasses"));
+    assertEquals(Set.of("green_glasses"), names(tree.endingWith("glasses")));
+    assertEquals(Set.of("green_glasses"), names(tree.containing("glass")));
+    assertEquals(Set.of(), names(tree.startingWith("red")));
+  }
+
+  @Test
+  @DisplayName("Tags are indexed by ID")
+  public void byId() {
+    var tree = build("red_glasses", "green_glasses");
+    assertEquals("green_glasses", tree.get(2).name);
+
+    // moving a tag to another name keeps it resolvable
+    var moved = new MutableTag(2, null, "userland", "blue_glasses", null, null);
+    tree.put("blue_glasses", List.of(moved));
+    tree.remove("green_glasses");
+    assertEquals("blue_glasses", tree.get(2).name);
+
+    tree.remove("red_glasses");
+    assertNull(tree.get(1));
+  }
+
+  @Test
+  @DisplayName("Copies are independent of the original")
+  public void copy() {
+    var tree = build("red_glasses", "green_glasses");
+    var copy = tree.copy();
+    copy.put("blue_glasses", List.of(new MutableTag(3, null, "userland", "blue_glasses", null, null)));
+    copy.remove("red_glasses");
+
+    assertEquals(Set.of("green_glasses", "red_glasses"), names(tree.containing("glass")));
+    assertEquals("red_glasses", tree.get(1).name);
+    assertNull(tree.get(3));
+
+    assertEquals(Set.of("blue_glasses", "green_glasses"), names(copy.containing("glass")));
+    assertNull(copy.get(1));
+    assertEquals("blue_glasses", copy.get(3).name);
+  }
+}
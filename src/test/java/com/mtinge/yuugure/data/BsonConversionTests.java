@@ -4,6 +4,7 @@ import com.mtinge.yuugure.core.States;
 import com.mtinge.yuugure.data.postgres.DBMedia;
 import com.mtinge.yuugure.data.postgres.DBProcessingQueue;
 import com.mtinge.yuugure.data.postgres.DBUpload;
+import com.mtinge.yuugure.data.postgres.QueuePriority;
 import com.mtinge.yuugure.data.processor.MediaMeta;
 import com.mtinge.yuugure.data.processor.ProcessableUpload;
 import com.mtinge.yuugure.data.processor.ProcessorResult;
@@ -30,7 +31,7 @@ public class BsonConversionTests {
   void ProcessableUploadRoundTrip() throws Exception {
     var media = new DBMedia(1, "sha256", "md5", "phash", "mime");
     var upload = new DBUpload(1, media.id, 0, 1, Timestamp.from(Instant.now().minus(Duration.ofDays(2))), States.Upload.MODERATION_QUEUED);
-    var processingQueue = new DBProcessingQueue(1, upload.id, Timestamp.from(upload.uploadDate.toInstant().plusSeconds(1)), true, false, null, false);
+    var processingQueue = new DBProcessingQueue(1, upload.id, Timestamp.from(upload.uploadDate.toInstant().plusSeconds(1)), true, false, null, false, QueuePriority.REPROCESS.colVal());
     var processable = new ProcessableUpload(processingQueue, upload, media);
 
     var bob = new BasicOutputBuffer();
@@ -74,7 +75,7 @@ public class BsonConversionTests {
   void ProcessorResultRoundTrip() throws Exception {
     var media = new DBMedia(1, "sha256", "md5", "phash", "mime");
     var upload = new DBUpload(1, media.id, 0, 1, Timestamp.from(Instant.now().minus(Duration.ofDays(2))), States.Upload.MODERATION_QUEUED);
-    var processingQueue = new DBProcessingQueue(1, upload.id, Timestamp.from(upload.uploadDate.toInstant().plusSeconds(1)), true, false, null, false);
+    var processingQueue = new DBProcessingQueue(1, upload.id, Timestamp.from(upload.uploadDate.toInstant().plusSeconds(1)), true, false, null, false, 0);
     var processable = new ProcessableUpload(processingQueue, upload, media);
 
     var meta = new MediaMeta.Builder()
@@ -92,6 +93,7 @@ public class BsonConversionTests {
       .message("An internal server error occurred.")
       .success(false)
       .tags(List.of("one", "two", "three"))
+      .phash("f0e1d2c3b4a59687")
       .build();
 
     var bob = new BasicOutputBuffer();
@@ -117,6 +119,7 @@ public class BsonConversionTests {
     assertThat(deserialized.tags()).isNotEmpty();
     assertThat(deserialized.tags()).hasSize(3);
     assertThat(deserialized.tags()).hasSameElementsAs(List.of("one", "two", "three"));
+    assertThat(deserialized.phash()).isEqualTo("f0e1d2c3b4a59687");
 
     // everything has a .equals() and .hashCode() implementation that will ensure things like
     // filesize are equal. only thing we don't check is tag elements which is why there are specific
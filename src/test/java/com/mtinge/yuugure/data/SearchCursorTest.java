@@ -0,0 +1,28 @@
+package com.mtinge.yuugure.data;
+
+import com.mtinge.yuugure.data.elastic.SearchCursor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SearchCursorTest {
+  @Test
+  @DisplayName("Cursors survive an encode/decode round trip")
+  public void roundTrip() {
+    var decoded = SearchCursor.decode(new SearchCursor(3000, 3334, 12345).encode());
+    assertEquals(3000, decoded.page);
+    assertEquals(3334, decoded.max);
+    assertEquals(12345, decoded.after);
+  }
+
+  @Test
+  @DisplayName("Malformed cursors are rejected")
+  public void malformed() {
+    assertNull(SearchCursor.decode("not a cursor"));
+    assertNull(SearchCursor.decode(""));
+    assertNull(SearchCursor.decode(new SearchCursor(5, 4, 10).encode()));
+    assertNull(SearchCursor.decode(new SearchCursor(2, 4, 0).encode()));
+  }
+}
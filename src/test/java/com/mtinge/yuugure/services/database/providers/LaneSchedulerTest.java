@@ -0,0 +1,86 @@
+package com.mtinge.yuugure.services.database.providers;
+
+import com.mtinge.yuugure.data.postgres.QueuePriority;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LaneSchedulerTest {
+  private static final Set<QueuePriority> ALL = EnumSet.allOf(QueuePriority.class);
+
+  @Test
+  @DisplayName("Splits picks by weight")
+  public void weighted() {
+    var scheduler = new LaneScheduler(new int[]{16, 3, 1});
+    var picks = new EnumMap<QueuePriority, Integer>(QueuePriority.class);
+    for (int i = 0; i < 200; i++) {
+      picks.merge(scheduler.next(ALL), 1, Integer::sum);
+    }
+
+    assertEquals(160, picks.get(QueuePriority.INTERACTIVE));
+    assertEquals(30, picks.get(QueuePriority.BACKFILL));
+    assertEquals(10, picks.get(QueuePriority.REPROCESS));
+  }
+
+  @Test
+  @DisplayName("Interleaves lanes instead of bursting")
+  public void interleaved() {
+    var scheduler = new LaneScheduler(new int[]{1, 1, 1});
+    for (int i = 0; i < 10; i++) {
+      assertEquals(QueuePriority.INTERACTIVE, scheduler.next(ALL));
+      assertEquals(QueuePriority.BACKFILL, scheduler.next(ALL));
+      assertEquals(QueuePriority.REPROCESS, scheduler.next(ALL));
+    }
+  }
+
+  @Test
+  @DisplayName("Only picks lanes with work")
+  public void ready() {
+    var scheduler = new LaneScheduler(new int[]{16, 3, 1});
+    assertNull(scheduler.next(Set.of()));
+    for (int i = 0; i < 50; i++) {
+      assertEquals(QueuePriority.REPROCESS, scheduler.next(Set.of(QueuePriority.REPROCESS)));
+    }
+  }
+
+  @Test
+  @DisplayName("A lane that fills up is served straight away")
+  public void noBankedCredit() {
+    var scheduler = new LaneScheduler(new int[]{16, 3, 1});
+    for (int i = 0; i < 1000; i++) {
+      scheduler.next(Set.of(QueuePriority.REPROCESS));
+    }
+
+    // a new upload must not wait behind credit the reprocess lane built up while alone
+    assertEquals(QueuePriority.INTERACTIVE, scheduler.next(ALL));
+
+    // and the interactive lane must not drain a burst once it empties and fills again
+    for (int i = 0; i < 100; i++) {
+      scheduler.next(Set.of(QueuePriority.INTERACTIVE));
+    }
+    int reprocess = 0;
+    for (int i = 0; i < 20; i++) {
+      if (scheduler.next(ALL) == QueuePriority.REPROCESS) reprocess++;
+    }
+    assertEquals(1, reprocess);
+  }
+
+  @Test
+  @DisplayName("Zero weights still get picked")
+  public void zeroWeight() {
+    var scheduler = new LaneScheduler(new int[]{16, 0, 0});
+    var picked = EnumSet.noneOf(QueuePriority.class);
+    for (int i = 0; i < 100; i++) {
+      picked.add(scheduler.next(ALL));
+    }
+
+    assertTrue(picked.containsAll(ALL));
+  }
+}
@@ -0,0 +1,52 @@
+package com.mtinge.yuugure.services.elastic;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DriftReconcilerTest {
+  private static final Map<String, Object> EXPECTED = Map.of(
+    "id", 7,
+    "tags", List.of(1, 2, 3),
+    "state", 4L,
+    "state_flags", List.of(4L),
+    "upload_date", 1600000000000L,
+    "video", false
+  );
+
+  @Test
+  @DisplayName("Number types and tag order don't count as drift")
+  public void equivalent() {
+    assertFalse(DriftReconciler.drifted(EXPECTED, Map.of(
+      "id", 7,
+      "tags", List.of(3, 1, 2),
+      "state", 4,
+      "state_flags", List.of(4),
+      "upload_date", 1600000000000L,
+      "video", false,
+      "unrelated", "ignored"
+    )));
+  }
+
+  @Test
+  @DisplayName("Differing or missing fields are drift")
+  public void drifted() {
+    assertTrue(DriftReconciler.drifted(EXPECTED, Map.of(
+      "id", 7,
+      "tags", List.of(1, 2),
+      "state", 4,
+      "state_flags", List.of(4),
+      "upload_date", 1600000000000L,
+      "video", false
+    )));
+    assertTrue(DriftReconciler.drifted(EXPECTED, Map.of(
+      "id", 7,
+      "tags", List.of(1, 2, 3)
+    )));
+  }
+}
@@ -0,0 +1,73 @@
+package com.mtinge.yuugure.services.processor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PerceptualHashTest {
+  private static BufferedImage shapes(int width, int height, Color background) {
+    var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    var g = image.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setColor(background);
+    g.fillRect(0, 0, width, height);
+    g.setColor(Color.WHITE);
+    g.fillOval(width / 8, height / 4, width / 3, height / 2);
+    g.setColor(Color.DARK_GRAY);
+    g.fillRect(width / 2, height / 8, width / 3, height * 3 / 4);
+    g.dispose();
+
+    return image;
+  }
+
+  private static BufferedImage gradient(int width, int height) {
+    var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int v = 255 - (x * 255 / width);
+        image.setRGB(x, y, new Color(v, (y * 255 / height), 128).getRGB());
+      }
+    }
+
+    return image;
+  }
+
+  @Test
+  @DisplayName("Rescaled and recolored copies hash close together")
+  public void similar() {
+    long original = PerceptualHash.of(shapes(800, 600, new Color(40, 90, 160)));
+    long smaller = PerceptualHash.of(shapes(200, 150, new Color(40, 90, 160)));
+    long tinted = PerceptualHash.of(shapes(800, 600, new Color(50, 100, 170)));
+
+    assertTrue(PerceptualHash.distance(original, smaller) <= 4);
+    assertTrue(PerceptualHash.distance(original, tinted) <= 4);
+  }
+
+  @Test
+  @DisplayName("Different images hash far apart")
+  public void different() {
+    long shapes = PerceptualHash.of(shapes(800, 600, new Color(40, 90, 160)));
+    long gradient = PerceptualHash.of(gradient(800, 600));
+
+    assertTrue(PerceptualHash.distance(shapes, gradient) > 12);
+  }
+
+  @Test
+  @DisplayName("Hashes round-trip through hex")
+  public void hex() {
+    long hash = 0xf0e1d2c3b4a59687L;
+    assertEquals("f0e1d2c3b4a59687", PerceptualHash.toHex(hash));
+    assertEquals(hash, PerceptualHash.fromHex("f0e1d2c3b4a59687"));
+    assertEquals(1L, PerceptualHash.fromHex(PerceptualHash.toHex(1L)));
+
+    assertNull(PerceptualHash.fromHex(""));
+    assertNull(PerceptualHash.fromHex("not a hash at all"));
+  }
+}